@@ -0,0 +1,182 @@
+// Adversary.java
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ Picks the piece that is worst for the player: the one whose best play
+ (the brain's bestMove()) leaves the highest rated board. A piece that
+ can not be played at all is the worst of all.
+
+ <p>
+ The pieces are rated in parallel, each on its own copy of the board and
+ with a brain of the running thread (brains are not thread safe), so the
+ caller's board is only read. The rating of a piece is kept in an
+ EvalCache under the board hash and the piece id, so picking again on the
+ same board costs no brain call. The cache assumes one piece set: call
+ clearCache() after switching to another one.
+
+ <p>
+ With depth 2 a piece is rated by what comes after it: the player's best
+ play of it, then the worst next piece for the resulting board. This sees
+ pieces that look harmless but leave a board no next piece fits well.
+
+ Typical client code looks like...
+ <pre>
+ Adversary adversary = new Adversary(DefaultBrain::new);
+ Piece next = adversary.worstPiece(board, pieces, limitHeight);	// board committed
+ </pre>
+*/
+public class Adversary {
+	private static final int CACHE_ENTRIES = 1 << 12;
+	private static final double NO_PLAY = Double.POSITIVE_INFINITY;
+
+	private final ThreadLocal<Brain> brains;
+	private ForkJoinPool pool = ForkJoinPool.commonPool(); // null -- on the caller's thread
+	private int depth = 1;
+	private final EvalCache cache = new EvalCache(CACHE_ENTRIES);
+
+	/**
+	 Creates an adversary rating the pieces with brains from the supplier,
+	 one for each thread that rates.
+	*/
+	public Adversary(Supplier<? extends Brain> brains) {
+		this.brains = ThreadLocal.withInitial(brains);
+	}
+
+	/**
+	 Rates the pieces in parallel on the given pool (the common pool by
+	 default), or one after another on the caller's thread when it is null.
+	*/
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 Sets how many pieces ahead the adversary looks, 1 or 2.
+	*/
+	public void setDepth(int depth) {
+		if (depth < 1 || depth > 2) throw new IllegalArgumentException("Your adversary depth is invalid.");
+		this.depth = depth;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public EvalCache getCache() {
+		return cache;
+	}
+
+	/**
+	 Forgets every rating, e.g. for another piece set or another brain.
+	*/
+	public void clearCache() {
+		cache.clear();
+	}
+
+	/**
+	 Returns the worst of the pieces for the board, which must be in the
+	 committed state and is not changed. Equal ratings go to the first
+	 piece of the array.
+	*/
+	public Piece worstPiece(Board board, Piece[] pieces, int limitHeight) {
+		double[] values = rate(board, pieces, limitHeight);
+		int worst = 0;
+		for (int i = 1; i < values.length; i++) {
+			if (values[i] > values[worst]) worst = i;
+		}
+		return pieces[worst];
+	}
+
+	/**
+	 Returns the rating of every piece for the board -- the rateBoard()
+	 value after its best play (depth 1), or after the worst next piece
+	 (depth 2), +infinity if it can not be played. The board must be in
+	 the committed state; it is only read, the brains work on copies.
+	*/
+	public double[] rate(Board board, Piece[] pieces, int limitHeight) {
+		if (pieces == null || pieces.length == 0) throw new IllegalArgumentException("Your piece set is empty.");
+		if (!board.committed) throw new RuntimeException("rate commit problem");
+		long boardKey = boardKey(board, limitHeight);
+		double[] values = new double[pieces.length];
+		List<Callable<Double>> tasks = new ArrayList<>();
+		List<Integer> missing = new ArrayList<>();
+		for (int i = 0; i < pieces.length; i++) {
+			values[i] = pieces[i].getId() == Piece.NO_ID ? Double.NaN : cache.get(EvalCache.key(boardKey, pieces[i].getId()));
+			if (!Double.isNaN(values[i])) continue;
+			Piece piece = pieces[i];
+			missing.add(i);
+			if (pool != null) {
+				Board copy = board.copy(); // copied here, the tasks never see the caller's board
+				tasks.add(() -> value(copy, piece, pieces, limitHeight));
+			}
+		}
+		if (missing.isEmpty()) return values;
+
+		List<Double> results = new ArrayList<>();
+		if (pool == null) {
+			for (int i : missing) results.add(value(board.copy(), pieces[i], pieces, limitHeight));
+		}
+		else {
+			try {
+				for (Future<Double> future : pool.invokeAll(tasks)) results.add(future.get());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Rating the pieces was interrupted.", e);
+			}
+			catch (ExecutionException e) {
+				throw new IllegalStateException("Rating a piece failed.", e.getCause());
+			}
+		}
+
+		for (int t = 0; t < missing.size(); t++) {
+			int i = missing.get(t);
+			values[i] = results.get(t);
+			if (pieces[i].getId() != Piece.NO_ID) cache.put(EvalCache.key(boardKey, pieces[i].getId()), values[i]);
+		}
+		return values;
+	}
+
+	/*
+	 The part of the cache key that is not the piece: the board hash mixed
+	 with everything else a rating depends on -- the board size, the limit
+	 height and the depth.
+	*/
+	private long boardKey(Board board, int limitHeight) {
+		long key = board.getHash();
+		key = key * 31 + board.getWidth();
+		key = key * 31 + board.getHeight();
+		key = key * 31 + limitHeight;
+		return key * 31 + depth;
+	}
+
+	/*
+	 The rating of one piece on a board copy of the running thread.
+	 The copy is played on and committed, the caller's board never is.
+	*/
+	private double value(Board board, Piece piece, Piece[] pieces, int limitHeight) {
+		Brain brain = brains.get();
+		Brain.Move move = brain.bestMove(board, piece, limitHeight, null);
+		if (move == null) return NO_PLAY;
+		if (depth == 1) return move.score;
+
+		// the player makes the best play, then the worst next piece comes
+		if (board.place(move.piece, move.x, move.y) == Board.PLACE_ROW_FILLED) board.clearRows();
+		board.commit();
+		double worst = Double.NEGATIVE_INFINITY;
+		Brain.Move next = new Brain.Move();
+		for (Piece nextPiece : pieces) {
+			Brain.Move reply = brain.bestMove(board, nextPiece, limitHeight, next);
+			if (reply == null) return NO_PLAY;
+			worst = Math.max(worst, reply.score);
+		}
+		return worst;
+	}
+}
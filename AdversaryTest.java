@@ -0,0 +1,147 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+// The adversary must pick the same piece in parallel, from the cache, and
+// as the plain loop over DefaultBrain.bestMove().
+
+public class AdversaryTest {
+	private Board randomBoard(long seed) {
+		Board board = new Board(10, 24);
+		Random random = new Random(seed);
+		DefaultBrain brain = new DefaultBrain();
+		Piece[] pieces = Piece.getPieces();
+		for (int i = 0; i < 12; i++) {
+			Brain.Move move = brain.bestMove(board, pieces[random.nextInt(pieces.length)], 20, null);
+			if (board.place(move.piece, move.x, move.y) == Board.PLACE_ROW_FILLED) board.clearRows();
+			board.commit();
+		}
+		return board;
+	}
+
+	@Test
+	// depth 1 is the worst of the brain's best scores
+	public void testMatchesBestMoveLoop() {
+		Piece[] pieces = Piece.getPieces();
+		Adversary adversary = new Adversary(DefaultBrain::new);
+		for (long seed = 0; seed < 5; seed++) {
+			Board board = randomBoard(seed);
+			String before = board.toString();
+			DefaultBrain brain = new DefaultBrain();
+			double[] values = adversary.rate(board, pieces, 20);
+			Piece worst = null;
+			double worstScore = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < pieces.length; i++) {
+				Brain.Move move = brain.bestMove(board, pieces[i], 20, null); // a new move each time
+				assertEquals(move.score, values[i], 0);
+				if (move.score > worstScore) {
+					worstScore = move.score;
+					worst = pieces[i];
+				}
+			}
+			assertSame(worst, adversary.worstPiece(board, pieces, 20));
+			assertEquals(before, board.toString());
+		}
+	}
+
+	@Test
+	public void testParallelMatchesSequential() {
+		Piece[] pieces = Piece.getPieces();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (int depth = 1; depth <= 2; depth++) {
+				Adversary parallel = new Adversary(DefaultBrain::new), sequential = new Adversary(DefaultBrain::new);
+				parallel.setPool(pool);
+				sequential.setPool(null);
+				parallel.setDepth(depth);
+				sequential.setDepth(depth);
+				for (long seed = 10; seed < 14; seed++) {
+					Board board = randomBoard(seed);
+					assertArrayEquals(sequential.rate(board, pieces, 20), parallel.rate(board, pieces, 20), 0);
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	// the second pick on a board is all cache hits
+	public void testCache() {
+		Piece[] pieces = Piece.getPieces();
+		Adversary adversary = new Adversary(DefaultBrain::new);
+		Board board = randomBoard(3);
+		double[] first = adversary.rate(board, pieces, 20);
+		long hits = adversary.getCache().getHits();
+		assertArrayEquals(first, adversary.rate(board, pieces, 20), 0);
+		assertEquals(hits + pieces.length, adversary.getCache().getHits());
+		adversary.setDepth(2); // rated again, under other keys
+		adversary.rate(board, pieces, 20);
+		assertEquals(hits + pieces.length, adversary.getCache().getHits());
+		adversary.clearCache();
+		adversary.setDepth(1);
+		assertArrayEquals(first, adversary.rate(board, pieces, 20), 0);
+		assertEquals(hits + pieces.length, adversary.getCache().getHits());
+	}
+
+	@Test
+	// the limit height is part of the key, and the caller's board is never committed
+	public void testLimitHeightAndCommit() {
+		Piece[] pieces = Piece.getPieces();
+		Adversary adversary = new Adversary(DefaultBrain::new);
+		Board board = randomBoard(5);
+		int low = 2; // most pieces have no play under it
+		double[] high = adversary.rate(board, pieces, 20);
+		double[] fresh = new Adversary(DefaultBrain::new).rate(board, pieces, low);
+		assertFalse(Arrays.equals(high, fresh));
+		assertArrayEquals(fresh, adversary.rate(board, pieces, low), 0);
+
+		board.place(pieces[Piece.SQUARE], 0, board.dropHeight(pieces[Piece.SQUARE], 0));
+		String placed = board.toString();
+		try {
+			adversary.rate(board, pieces, 20);
+			fail();
+		} catch (RuntimeException expected) { }
+		assertEquals(placed, board.toString());
+		board.undo();
+	}
+
+	@Test
+	// a piece with no play at all is the worst, whatever comes before it
+	public void testNoPlayIsWorst() {
+		Board board = new Board(3, 8);
+		Piece[] pieces = { Piece.getPieces()[Piece.SQUARE], Piece.getPieces()[Piece.STICK] }; // the stick fits in no way
+		Adversary adversary = new Adversary(DefaultBrain::new);
+		adversary.setPool(null);
+		assertEquals(Double.POSITIVE_INFINITY, adversary.rate(board, pieces, 3)[1], 0);
+		assertSame(pieces[1], adversary.worstPiece(board, pieces, 3));
+	}
+
+	@Test
+	// depth 2: the brain's best play, then the worst next piece
+	public void testTwoPlies() {
+		Piece[] pieces = Piece.getPieces();
+		Adversary adversary = new Adversary(DefaultBrain::new);
+		adversary.setDepth(2);
+		Board board = randomBoard(7);
+		double[] values = adversary.rate(board, pieces, 20);
+		DefaultBrain brain = new DefaultBrain();
+		for (int i = 0; i < pieces.length; i++) {
+			Board after = board.copy();
+			Brain.Move move = brain.bestMove(after, pieces[i], 20, null);
+			if (after.place(move.piece, move.x, move.y) == Board.PLACE_ROW_FILLED) after.clearRows();
+			after.commit();
+			double worst = Double.NEGATIVE_INFINITY;
+			for (Piece next : pieces) worst = Math.max(worst, brain.bestMove(after, next, 20, null).score);
+			assertEquals(worst, values[i], 0);
+		}
+		try {
+			adversary.setDepth(3);
+			fail();
+		} catch (IllegalArgumentException expected) { }
+	}
+}
@@ -0,0 +1,291 @@
+// Arena.java
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ Plays many independent brain games at once, for comparing brains
+ without watching JBrainTetris one game at a time.
+ Every game is a GameEngine driven with play() -- no ticks, no display --
+ and the games are spread over a fixed pool of threads.
+
+ <p>
+ Game i gets its own random stream, the i-th seed drawn from one
+ SplittableRandom of the master seed, so the results of a run depend on
+ the master seed only, never on the number of threads or the scheduling
+ -- as long as the brains do not look at the clock: a LookaheadBrain
+ with a time budget plays by timing, so main() runs it without one.
+ Brains keep state between moves (scratch boards, the EvalCache), so
+ every thread makes its own with the given Supplier.
+ The finished games add into lock-free aggregates: pieces survived,
+ rows cleared and score, each with its mean, max and percentiles.
+
+ Typical client code looks like...
+ <pre>
+ Arena arena = new Arena(10, 20, Piece.getPieces());
+ arena.setPieceLimit(500);
+ Arena.Result result = arena.run(DefaultBrain::new, 1000, 42L);
+ System.out.println(result);	// or result.pieces().mean() ...
+ </pre>
+ or from the command line
+ <pre>
+ java Arena [games] [default|bad|lookahead] [seed] [threads]
+ </pre>
+*/
+public class Arena {
+	private final int width;
+	private final int height;
+	private final Piece[] pieces;
+	private int pieceLimit = 1000;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 Creates an arena for games on a board of the given width and playing
+	 height (see GameEngine), with the given piece set.
+	*/
+	public Arena(int width, int height, Piece[] pieces) {
+		if (pieces == null || pieces.length == 0) throw new IllegalArgumentException("Your piece set is empty.");
+		this.width = width;
+		this.height = height;
+		this.pieces = pieces.clone();
+	}
+
+	/**
+	 Stops every game after the given number of pieces (1000 by default).
+	 Good brains rarely lose, so there has to be a limit.
+	*/
+	public void setPieceLimit(int limit) {
+		if (limit <= 0) throw new IllegalArgumentException("Your piece limit is invalid.");
+		pieceLimit = limit;
+	}
+
+	/**
+	 Sets how many games run at once, the number of cores by default.
+	*/
+	public void setThreads(int threads) {
+		if (threads <= 0) throw new IllegalArgumentException("Your thread count is invalid.");
+		this.threads = threads;
+	}
+
+	/**
+	 Plays the given number of games, a brain from the supplier in each
+	 thread, and returns the aggregates once all of them are done.
+	*/
+	public Result run(Supplier<? extends Brain> brains, int games, long seed) {
+		if (games <= 0) throw new IllegalArgumentException("Your game count is invalid.");
+		// the seeds are drawn up front, in order, so game i always plays the same pieces
+		SplittableRandom master = new SplittableRandom(seed);
+		long[] seeds = new long[games];
+		for (int i = 0; i < games; i++) seeds[i] = master.nextLong();
+
+		// a standard piece clears at most 4 rows and scores at most 1 + 50
+		Result result = new Result(games, pieceLimit, 4 * pieceLimit, 51 * pieceLimit);
+		ThreadLocal<Brain> brain = ThreadLocal.withInitial(brains);
+		ThreadLocal<CountingEngine> engine = ThreadLocal.withInitial(() -> new CountingEngine(width, height, pieces));
+
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, games));
+		try {
+			List<Future<?>> futures = new ArrayList<>(games);
+			for (int i = 0; i < games; i++) {
+				long gameSeed = seeds[i];
+				futures.add(pool.submit(() -> play(engine.get(), brain.get(), gameSeed, result)));
+			}
+			for (Future<?> future : futures) future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("The arena was interrupted.", e);
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException("A game failed.", e.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		result.nanos = System.nanoTime() - start;
+		return result;
+	}
+
+	/*
+	 Plays one game to the end with the brain and adds it to the result.
+	*/
+	private void play(CountingEngine engine, Brain brain, long seed, Result result) {
+		engine.setPieceLimit(pieceLimit);
+		engine.rows = 0;
+		int played = playOut(engine, brain, new Random(seed));
+		result.add(played, engine.rows, engine.getScore());
+	}
+
+	/**
+	 Starts a new game on the engine and lets the brain play it to the end
+	 (or the engine's piece limit) with play(). Returns the pieces played.
+	 The engine and the brain are reused as they are, nothing is allocated
+	 per move.
+	*/
+	static int playOut(GameEngine engine, Brain brain, Random random) {
+		engine.startGame(random);
+		Brain.Move move = new Brain.Move();
+		int played = 0;
+		while (engine.isGameOn()) {
+			engine.getBoard().undo(); // the brain wants the board without the current piece
+			move = brain.bestMove(engine.getBoard(), engine.getCurrentPiece(), engine.getHeight(), move);
+			if (move != null && engine.play(move.piece, move.x)) played++;
+			else {
+				engine.stopGame(); // no play at all -- lost
+				if (move == null) move = new Brain.Move();
+			}
+		}
+		return played;
+	}
+
+	/*
+	 An engine that also counts the rows cleared.
+	*/
+	private static class CountingEngine extends GameEngine {
+		int rows;
+
+		CountingEngine(int width, int height, Piece[] pieces) {
+			super(width, height, pieces);
+		}
+
+		@Override
+		protected void rowsCleared(int cleared) {
+			rows += cleared;
+		}
+	}
+
+	/**
+	 One measured quantity over all games: a lock-free sum and max
+	 and a histogram of exact values up to a cap (values above it are
+	 counted in the last bucket, the max is still exact).
+	*/
+	public static class Stat {
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+		private final AtomicLongArray histogram;
+		private final LongAdder count = new LongAdder();
+
+		Stat(int cap) {
+			histogram = new AtomicLongArray(cap + 1);
+		}
+
+		void add(long value) {
+			sum.add(value);
+			max.accumulate(value);
+			histogram.incrementAndGet((int) Math.min(Math.max(value, 0), histogram.length() - 1));
+			count.increment();
+		}
+
+		public double mean() {
+			long n = count.sum();
+			return n == 0 ? 0 : (double) sum.sum() / n;
+		}
+
+		public long max() {
+			return count.sum() == 0 ? 0 : max.get();
+		}
+
+		/**
+		 Returns the smallest value that at least p percent of the games
+		 reached at most, p in [0, 100].
+		*/
+		public long percentile(double p) {
+			if (p < 0 || p > 100) throw new IllegalArgumentException("Your percentile is invalid.");
+			long n = count.sum();
+			if (n == 0) return 0;
+			long rank = Math.max(1, (long) Math.ceil(p / 100 * n));
+			long seen = 0;
+			for (int value = 0; value < histogram.length(); value++) {
+				seen += histogram.get(value);
+				if (seen >= rank) return value;
+			}
+			return max();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("mean %.1f  p10 %d  p50 %d  p90 %d  max %d",
+					mean(), percentile(10), percentile(50), percentile(90), max());
+		}
+	}
+
+	/**
+	 The aggregates of a run.
+	*/
+	public static class Result {
+		private final int games;
+		private final Stat pieces, rows, score;
+		private long nanos;
+
+		Result(int games, int pieceCap, int rowCap, int scoreCap) {
+			this.games = games;
+			pieces = new Stat(pieceCap);
+			rows = new Stat(rowCap);
+			score = new Stat(scoreCap);
+		}
+
+		void add(int pieceCount, int rowCount, int points) {
+			pieces.add(pieceCount);
+			rows.add(rowCount);
+			score.add(points);
+		}
+
+		public int games() { return games; }
+
+		public Stat pieces() { return pieces; }
+
+		public Stat rows() { return rows; }
+
+		public Stat score() { return score; }
+
+		public long elapsedNanos() { return nanos; }
+
+		public double gamesPerSecond() {
+			return nanos == 0 ? 0 : games * 1e9 / nanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d games, %.1f games/sec%n  pieces %s%n  rows   %s%n  score  %s",
+					games, gamesPerSecond(), pieces, rows, score);
+		}
+	}
+
+	/*
+	 The brains main() knows by name, all of them repeatable.
+	*/
+	static Supplier<Brain> brainNamed(String name) {
+		switch (name) {
+			case "default": return DefaultBrain::new;
+			case "bad": return BadBrain::new;
+			case "lookahead": return () -> {
+				LookaheadBrain brain = new LookaheadBrain();
+				brain.setTimeBudget(0); // a time budget makes the moves depend on the load
+				return brain;
+			};
+			default: throw new IllegalArgumentException("Your brain name is invalid: " + name);
+		}
+	}
+
+	public static void main(String[] args) {
+		// no consistency checks in simulations, unless -Dboard.check asks for them
+		if (System.getProperty("board.check") == null) Board.setDefaultCheckMode(Board.CheckMode.OFF);
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		String brain = args.length > 1 ? args[1] : "default";
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 0L;
+		Arena arena = new Arena(JTetris.WIDTH, JTetris.HEIGHT, Piece.getPieces());
+		if (args.length > 3) arena.setThreads(Integer.parseInt(args[3]));
+		System.out.println(brain + ": " + arena.run(brainNamed(brain), games, seed));
+	}
+}
@@ -0,0 +1,73 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+// The arena results depend on the master seed only.
+
+public class ArenaTest {
+	private Arena.Result run(int threads, long seed) {
+		Arena arena = new Arena(10, 20, Piece.getPieces());
+		arena.setPieceLimit(60);
+		arena.setThreads(threads);
+		return arena.run(DefaultBrain::new, 12, seed);
+	}
+
+	private void assertSameStat(Arena.Stat expected, Arena.Stat actual) {
+		assertEquals(expected.mean(), actual.mean(), 0);
+		assertEquals(expected.max(), actual.max());
+		for (int p = 0; p <= 100; p += 10) assertEquals(expected.percentile(p), actual.percentile(p));
+	}
+
+	@Test
+	public void testThreadsDoNotChangeResults() {
+		Arena.Result one = run(1, 5L), four = run(4, 5L);
+		assertEquals(12, four.games());
+		assertSameStat(one.pieces(), four.pieces());
+		assertSameStat(one.rows(), four.rows());
+		assertSameStat(one.score(), four.score());
+		assertTrue(four.gamesPerSecond() > 0);
+	}
+
+	@Test
+	// main()'s lookahead brain searches without a time budget, so its games repeat too
+	public void testLookaheadDoesNotDependOnThreads() {
+		Arena arena = new Arena(10, 20, Piece.getPieces());
+		arena.setPieceLimit(15);
+		arena.setThreads(1);
+		Arena.Result one = arena.run(Arena.brainNamed("lookahead"), 3, 4L);
+		arena.setThreads(3);
+		Arena.Result three = arena.run(Arena.brainNamed("lookahead"), 3, 4L);
+		assertSameStat(one.pieces(), three.pieces());
+		assertSameStat(one.score(), three.score());
+	}
+
+	@Test
+	public void testDefaultBrainPlaysThePieceLimit() {
+		Arena.Result result = run(2, 9L);
+		assertEquals(60, result.pieces().max());
+		assertEquals(60, result.pieces().percentile(50)); // the brain survives 60 pieces
+		assertTrue(result.rows().mean() > 10);
+		assertTrue(result.score().percentile(10) <= result.score().percentile(90));
+	}
+
+	@Test
+	public void testBadBrainLosesEarly() {
+		Arena arena = new Arena(10, 20, Piece.getPieces());
+		arena.setPieceLimit(60);
+		Arena.Result bad = arena.run(BadBrain::new, 8, 1L);
+		assertTrue(bad.pieces().max() < 60);
+		assertEquals(0, bad.rows().max());
+	}
+
+	@Test
+	public void testStatPercentiles() {
+		Arena.Stat stat = new Arena.Stat(10);
+		for (int i = 1; i <= 10; i++) stat.add(i);
+		stat.add(50); // over the cap: counted in the last bucket, max still exact
+		assertEquals(50, stat.max());
+		assertEquals(1, stat.percentile(0));
+		assertEquals(6, stat.percentile(50)); // the 6th of 11
+		assertEquals(10, stat.percentile(100));
+		assertEquals(105 / 11.0, stat.mean(), 1e-9);
+	}
+}
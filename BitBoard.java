@@ -0,0 +1,474 @@
+// BitBoard.java
+
+import java.util.Arrays;
+
+/**
+ A Board engine that keeps every row as a packed long bitmask --
+ bit x of rows[y] is set when the block (x, y) is filled.
+ Has the same public API and undo rules as Board, so DefaultBrain
+ and JTetris can play on it unchanged.
+
+ <p>
+ A full row is a single compare against the full-row mask, a collision
+ is a single AND, row widths come from Long.bitCount and column heights
+ are rebuilt with a top-down sweep over the rows after a clear.
+ The board can be at most 64 blocks wide.
+*/
+public class BitBoard extends Board {
+	public static final int MAX_WIDTH = 64;
+	private static final int MARK_EXTRA = 4; // ints kept per mark after the heights
+
+	private long[] rows; // one bitmask per row
+	private int[] heights; // array saves heights for every column
+	private int maxHeight;
+	private final long fullRow; // the mask of a filled row
+	private long hash; // same hash as Board.getHash()
+
+	// for backup
+	private long[] rowsBackUp;
+	private int[] heightsBackUp;
+	private int maxHeightBackUp;
+	private long hashBackUp;
+
+	// savepoints -- snapshots stacked one after another, see mark()
+	private long[] markRows; // live rows of every open mark
+	private int[] markInfo; // per mark: heights, maxHeight, offset in markRows and the hash
+	private int marksSize;
+	private int markRowsSize;
+
+	// what changed since the last check, for the INCREMENTAL mode only
+	private long touchedColumns; // bit x set when column x changed
+	private int touchedMinY = Integer.MAX_VALUE;
+	private int touchedMaxY = -1;
+
+	/**
+	 Creates an empty board of the given width and height
+	 measured in blocks.
+	*/
+	public BitBoard(int width, int height) {
+		super(width, height, false);
+		if (width > MAX_WIDTH) throw new IllegalArgumentException("Your width is too big for a bit board.");
+		fullRow = width == MAX_WIDTH ? -1L : (1L << width) - 1;
+		rows = new long[height];
+		heights = new int[width];
+		rowsBackUp = new long[height];
+		heightsBackUp = new int[width];
+		markRows = new long[height];
+		markInfo = new int[4 * (width + MARK_EXTRA)];
+	}
+
+	@Override
+	public int getMaxHeight() { return maxHeight; }
+
+	@Override
+	public long getHash() { return hash; }
+
+	/*
+	 Board features. BitBoard does not keep them up to date, it computes them
+	 on demand -- O(width) over the heights or one popcount per live row.
+	*/
+
+	@Override
+	public int getHoles() {
+		int filled = 0;
+		for (int y = 0; y < maxHeight; y++) filled += Long.bitCount(rows[y]);
+		return getSumHeight() - filled;
+	}
+
+	@Override
+	public int getSumHeight() {
+		int sum = 0;
+		for (int h : heights) sum += h;
+		return sum;
+	}
+
+	@Override
+	public int getBumpiness() {
+		int bumpiness = 0;
+		for (int x = 1; x < heights.length; x++) bumpiness += Math.abs(heights[x] - heights[x - 1]);
+		return bumpiness;
+	}
+
+	@Override
+	public int getWellDepth() {
+		int depth = 0;
+		for (int x = 0; x < heights.length; x++) {
+			int left = x == 0 ? getHeight() : heights[x - 1];
+			int right = x == heights.length - 1 ? getHeight() : heights[x + 1];
+			depth += Math.max(0, Math.min(left, right) - heights[x]);
+		}
+		return depth;
+	}
+
+	/**
+	 Bit i of (row ^ (row << 1 | 1)) is set when block i differs from the block
+	 on its left (the left wall is filled), the right wall adds one more
+	 when the last block is empty.
+	*/
+	@Override
+	public int getRowTransitions() {
+		int transitions = 0;
+		for (int y = 0; y < maxHeight; y++) {
+			long row = rows[y];
+			if (row == 0) continue;
+			transitions += Long.bitCount((row ^ (row << 1 | 1)) & fullRow);
+			if ((row >>> (getWidth() - 1) & 1) == 0) transitions++;
+		}
+		return transitions;
+	}
+
+	/**
+	 * Sets the bit of (x, y) and swaps the row's old hash for its new one.
+	 */
+	private void setBlock(int x, int y) {
+		hash ^= rowHash(rowKey(rows[y]), y);
+		rows[y] |= 1L << x;
+		hash ^= rowHash(rowKey(rows[y]), y);
+		if (tracking()) touch(1L << x, y, y);
+	}
+
+	/**
+	 * True when the changes have to be remembered -- in the INCREMENTAL mode.
+	 */
+	private boolean tracking() {
+		return getCheckMode() == CheckMode.INCREMENTAL;
+	}
+
+	/**
+	 * Remembers that the given columns and the rows fromY..toY changed.
+	 */
+	private void touch(long columns, int fromY, int toY) {
+		touchedColumns |= columns;
+		touchedMinY = Math.min(touchedMinY, fromY);
+		touchedMaxY = Math.max(touchedMaxY, toY);
+	}
+
+	/**
+	 * Remembers the columns that differ between the rows and the other
+	 * rows, below top -- for the changes that swap whole states.
+	 */
+	private void touchDiff(long[] other, int otherOffset, int top) {
+		long columns = 0;
+		for (int y = 0; y < top; y++) columns |= rows[y] ^ other[otherOffset + y];
+		if (columns != 0) touch(columns, 0, top - 1);
+	}
+
+	/**
+	 * Checks the bit rows against the heights, maxHeight and the hash.
+	 */
+	@Override
+	protected String checkAll() {
+		clearTouched();
+		int checkMaxHeight = 0;
+		boolean validHeights = true;
+		for (int x = 0; x < getWidth(); x++) {
+			int currHeight = 0;
+			for (int y = 0; y < getHeight(); y++)
+				if ((rows[y] & (1L << x)) != 0) currHeight = y + 1;
+			validHeights &= (heights[x] == currHeight);
+			checkMaxHeight = Math.max(checkMaxHeight, currHeight);
+		}
+		long checkHash = 0;
+		for (int y = 0; y < getHeight(); y++) checkHash ^= rowHash(rowKey(rows[y]), y);
+		String text = "Description: ";
+		if (!validHeights) text += " Heights are incorrect. ";
+		if (checkMaxHeight != getMaxHeight()) text += " MaxHeight is incorrect. ";
+		if (checkHash != hash) text += " Hash is incorrect. ";
+		return text.equals("Description: ") ? null : text;
+	}
+
+	/**
+	 * Checks the heights of the columns changed since the last check, that
+	 * the changed rows above maxHeight are empty, and maxHeight against the
+	 * heights. Like Board, the hash is left to the full check.
+	 */
+	@Override
+	protected String checkTouched() {
+		String text = "Description: ";
+		for (long bits = touchedColumns & fullRow; bits != 0; bits &= bits - 1) {
+			int x = Long.numberOfTrailingZeros(bits);
+			int currHeight = rows.length;
+			while (currHeight > 0 && (rows[currHeight - 1] & (1L << x)) == 0) currHeight--;
+			if (heights[x] != currHeight) { text += " Height of column " + x + " is incorrect. "; break; }
+		}
+		for (int y = Math.max(touchedMinY, maxHeight); y <= touchedMaxY; y++) {
+			if (rows[y] != 0) { text += " Row " + y + " is above maxHeight. "; break; }
+		}
+		int checkMaxHeight = 0;
+		for (int h : heights) checkMaxHeight = Math.max(checkMaxHeight, h);
+		if (checkMaxHeight != maxHeight) text += " MaxHeight is incorrect. ";
+		clearTouched();
+		return text.equals("Description: ") ? null : text;
+	}
+
+	/**
+	 * Starts remembering the changes afresh, after a check.
+	 */
+	private void clearTouched() {
+		touchedColumns = 0;
+		touchedMinY = Integer.MAX_VALUE;
+		touchedMaxY = -1;
+	}
+
+	@Override
+	public int dropHeight(Piece piece, int x) {
+		if (x < 0 || x >= getWidth())
+			throw new IllegalArgumentException("Your x coordinate is invalid for this board.");
+		return dropHeight(heights, piece, x);
+	}
+
+	@Override
+	public int dropHeights(Piece piece, int[] out) {
+		return dropHeights(heights, getWidth(), piece, out);
+	}
+
+	@Override
+	public int getColumnHeight(int x) {
+		if (x < 0 || x >= getWidth())
+			throw new IllegalArgumentException("Your x coordinate is invalid for this board.");
+		return heights[x];
+	}
+
+	@Override
+	public int getRowWidth(int y) {
+		if (y < 0 || y >= getHeight())
+			throw new IllegalArgumentException("Your y coordinate is invalid for this board.");
+		return Long.bitCount(rows[y]);
+	}
+
+	@Override
+	public boolean getGrid(int x, int y) {
+		return x < 0 || x >= getWidth() || y < 0 || y >= getHeight() || (rows[y] & (1L << x)) != 0;
+	}
+
+	/**
+	 Same contract as Board.place(). A piece that fits is ORed in a row mask
+	 at a time. Otherwise cells are checked in body order, so the returned
+	 code and the partially placed state on errors match Board.
+	*/
+	@Override
+	public int place(Piece piece, int x, int y) {
+		if (piece == null) throw new IllegalArgumentException("Your piece is invlaid");
+		if (!committed) throw new RuntimeException("place commit problem");
+		committed = false;
+		doBackUp();
+		int result = PLACE_OK;
+		long[] masks = insideMasks(piece, x, y);
+		if (masks != null && !collides(masks, y)) {
+			for (int r = 0; r < masks.length; r++) {
+				if (masks[r] == 0) continue;
+				int py = y + r;
+				hash ^= rowHash(rowKey(rows[py]), py);
+				rows[py] |= masks[r];
+				hash ^= rowHash(rowKey(rows[py]), py);
+				if (rows[py] == fullRow) result = PLACE_ROW_FILLED;
+				if (tracking()) touch(masks[r], py, py);
+				for (long bits = masks[r]; bits != 0; bits &= bits - 1) {
+					int px = Long.numberOfTrailingZeros(bits);
+					if (heights[px] <= py) heights[px] = py + 1;
+				}
+				if (maxHeight <= py) maxHeight = py + 1;
+			}
+			afterChange();
+			return result;
+		}
+		for (int i = 0; i < piece.bodySize(); i++) {
+			int px = piece.bodyX(i) + x, py = piece.bodyY(i) + y;
+			if (px < 0 || px >= getWidth() || py < 0 || py >= getHeight()) { result = PLACE_OUT_BOUNDS; break; }
+			if ((rows[py] & (1L << px)) != 0) { result = PLACE_BAD; break; }
+			setBlock(px, py);
+			if (heights[px] <= py) heights[px] = py + 1;
+			if (maxHeight <= py) maxHeight = py + 1;
+			if (rows[py] == fullRow) result = PLACE_ROW_FILLED;
+		}
+		afterChange();
+		return result;
+	}
+
+	/**
+	 Same contract as Board.placementResult(). A row is filled when the
+	 piece's row mask and the board row make the full-row mask.
+	*/
+	@Override
+	public int placementResult(Piece piece, int x, int y) {
+		if (piece == null) throw new IllegalArgumentException("Your piece is invlaid");
+		int result = PLACE_OK;
+		long[] masks = insideMasks(piece, x, y);
+		if (masks != null) {
+			for (int r = 0; r < masks.length; r++) {
+				if (masks[r] == 0) continue;
+				long row = rows[y + r];
+				if ((row & masks[r]) != 0) return PLACE_BAD;
+				if ((row | masks[r]) == fullRow) result = PLACE_ROW_FILLED;
+			}
+			return result;
+		}
+		for (int i = 0; i < piece.bodySize(); i++) {
+			int px = piece.bodyX(i) + x, py = piece.bodyY(i) + y;
+			if (px < 0 || px >= getWidth() || py < 0 || py >= getHeight()) return PLACE_OUT_BOUNDS;
+			if ((rows[py] & (1L << px)) != 0) return PLACE_BAD;
+			long mask = 0; // blocks of the piece in this row
+			for (int j = 0; j < piece.bodySize(); j++)
+				if (piece.bodyY(j) == piece.bodyY(i)) mask |= 1L << (piece.bodyX(j) + x);
+			if ((rows[py] | mask) == fullRow) result = PLACE_ROW_FILLED;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the piece's row masks moved to x, or null when some block
+	 * would be out of bounds -- then only the cell by cell check gives the
+	 * same error order as Board.
+	 */
+	private long[] insideMasks(Piece piece, int x, int y) {
+		if (x < 0 || y < 0 || x + piece.getWidth() > getWidth() || y + piece.getHeight() > getHeight()) return null;
+		return piece.placementMasks(getWidth())[x];
+	}
+
+	/**
+	 * Returns true if any row mask hits a block, rows counted from y.
+	 */
+	private boolean collides(long[] masks, int y) {
+		for (int r = 0; r < masks.length; r++)
+			if ((rows[y + r] & masks[r]) != 0) return true;
+		return false;
+	}
+
+	@Override
+	public BitBoard copy() {
+		return copyInto(new BitBoard(getWidth(), getHeight()));
+	}
+
+	/**
+	 * Fills one block without any piece, same as Board.addBlock().
+	 */
+	@Override
+	void addBlock(int x, int y) {
+		if (committed) { committed = false; doBackUp(); }
+		setBlock(x, y);
+		if (heights[x] <= y) heights[x] = y + 1;
+		if (maxHeight <= y) maxHeight = y + 1;
+	}
+
+	/**
+	 * Copies the live rows, heights and maxHeight for the backup information.
+	 * Rows above maxHeight are empty in both copies, so they are skipped.
+	 */
+	private void doBackUp() {
+		System.arraycopy(rows, 0, rowsBackUp, 0, Math.max(maxHeight, maxHeightBackUp));
+		System.arraycopy(heights, 0, heightsBackUp, 0, heights.length);
+		maxHeightBackUp = maxHeight;
+		hashBackUp = hash;
+	}
+
+	@Override
+	public int clearRows() {
+		if (committed) { committed = false; doBackUp(); }
+		int rowsCleared = 0;
+		for (int y = 0; y < maxHeight; y++) {
+			if (rows[y] == fullRow) rowsCleared++;
+			else if (rowsCleared > 0) rows[y - rowsCleared] = rows[y];
+		}
+		if (rowsCleared > 0) {
+			if (tracking()) touch(fullRow, 0, maxHeight - 1); // every row above the first full one moved
+			for (int y = maxHeight - rowsCleared; y < maxHeight; y++) rows[y] = 0;
+			hash = 0;
+			for (int y = 0; y < maxHeight - rowsCleared; y++) hash ^= rowHash(rowKey(rows[y]), y);
+			updateHeights(maxHeight - rowsCleared);
+		}
+		afterChange();
+		return rowsCleared;
+	}
+
+	/**
+	 * Rebuilds heights and maxHeight by sweeping rows down from the given top.
+	 * The first row where a column's bit shows up is that column's height.
+	 */
+	private void updateHeights(int top) {
+		Arrays.fill(heights, 0);
+		maxHeight = 0;
+		long seen = 0;
+		for (int y = top - 1; y >= 0 && seen != fullRow; y--) {
+			long fresh = rows[y] & ~seen;
+			if (fresh != 0 && maxHeight == 0) maxHeight = y + 1;
+			while (fresh != 0) {
+				heights[Long.numberOfTrailingZeros(fresh)] = y + 1;
+				fresh &= fresh - 1;
+			}
+			seen |= rows[y];
+		}
+	}
+
+	@Override
+	public void undo() {
+		if (!committed) {
+			if (tracking()) touchDiff(rowsBackUp, 0, Math.max(maxHeight, maxHeightBackUp));
+			long[] rowsTmp = rowsBackUp; rowsBackUp = rows; rows = rowsTmp;
+			int[] heightsTmp = heightsBackUp; heightsBackUp = heights; heights = heightsTmp;
+			int maxTmp = maxHeightBackUp; maxHeightBackUp = maxHeight; maxHeight = maxTmp;
+			long hashTmp = hashBackUp; hashBackUp = hash; hash = hashTmp;
+		}
+		commit();
+		afterChange();
+	}
+
+	/**
+	 Same contract as Board.mark(). A mark snapshots only the live rows
+	 (up to maxHeight) and the heights into growable stacks.
+	*/
+	@Override
+	public int mark() {
+		if (!committed) throw new RuntimeException("mark commit problem");
+		int infoSize = getWidth() + MARK_EXTRA;
+		if ((marksSize + 1) * infoSize > markInfo.length)
+			markInfo = Arrays.copyOf(markInfo, markInfo.length * 2);
+		if (markRowsSize + maxHeight > markRows.length)
+			markRows = Arrays.copyOf(markRows, Math.max(markRows.length * 2, markRowsSize + maxHeight));
+		int base = marksSize * infoSize;
+		System.arraycopy(heights, 0, markInfo, base, getWidth());
+		markInfo[base + getWidth()] = maxHeight;
+		markInfo[base + getWidth() + 1] = markRowsSize;
+		markInfo[base + getWidth() + 2] = (int) (hash >>> 32);
+		markInfo[base + getWidth() + 3] = (int) hash;
+		System.arraycopy(rows, 0, markRows, markRowsSize, maxHeight);
+		markRowsSize += maxHeight;
+		return marksSize++;
+	}
+
+	@Override
+	public void rollbackTo(int mark) {
+		validMark(mark);
+		int base = mark * (getWidth() + MARK_EXTRA);
+		if (tracking()) {
+			// the mark's rows are stacked only up to its maxHeight, the rows above are empty
+			int markHeight = markInfo[base + getWidth()];
+			touchDiff(markRows, markInfo[base + getWidth() + 1], markHeight);
+			long above = 0;
+			for (int y = markHeight; y < maxHeight; y++) above |= rows[y];
+			if (above != 0) touch(above, markHeight, maxHeight - 1);
+		}
+		Arrays.fill(rows, 0, maxHeight, 0L);
+		maxHeight = markInfo[base + getWidth()];
+		markRowsSize = markInfo[base + getWidth() + 1];
+		hash = ((long) markInfo[base + getWidth() + 2] << 32) | (markInfo[base + getWidth() + 3] & 0xFFFFFFFFL);
+		System.arraycopy(markRows, markRowsSize, rows, 0, maxHeight);
+		System.arraycopy(markInfo, base, heights, 0, getWidth());
+		marksSize = mark;
+		commit();
+		afterChange();
+	}
+
+	@Override
+	public void release(int mark) {
+		validMark(mark);
+		markRowsSize = markInfo[mark * (getWidth() + MARK_EXTRA) + getWidth() + 1];
+		marksSize = mark;
+	}
+
+	/**
+	 * Checks if the mark is one of the open savepoints.
+	 */
+	private void validMark(int mark) {
+		if (mark < 0 || mark >= marksSize) throw new IllegalArgumentException("Your mark is not an open savepoint.");
+	}
+}
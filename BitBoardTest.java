@@ -0,0 +1,174 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// BitBoard must behave exactly like Board, so most tests here play the
+// same random moves on both boards and compare everything after every move.
+
+public class BitBoardTest {
+	private static final Piece[] pieces = Piece.getPieces();
+
+	// Compares every public observation of two boards.
+	private void assertSameBoards(Board expected, Board actual) {
+		assertEquals(expected.getMaxHeight(), actual.getMaxHeight());
+		for (int x = 0; x < expected.getWidth(); x++)
+			assertEquals(expected.getColumnHeight(x), actual.getColumnHeight(x));
+		for (int y = 0; y < expected.getHeight(); y++)
+			assertEquals(expected.getRowWidth(y), actual.getRowWidth(y));
+		assertEquals(expected.toString(), actual.toString());
+		assertEquals(expected.getHash(), actual.getHash());
+		assertEquals(expected.getHoles(), actual.getHoles());
+		assertEquals(expected.getSumHeight(), actual.getSumHeight());
+		assertEquals(expected.getBumpiness(), actual.getBumpiness());
+		assertEquals(expected.getWellDepth(), actual.getWellDepth());
+		assertEquals(expected.getRowTransitions(), actual.getRowTransitions());
+	}
+
+	// Plays random drops with clears and undos on both boards.
+	private void playRandomGame(int width, int height, long seed) {
+		Board board = new Board(width, height);
+		board.setCheckMode(Board.CheckMode.OFF); // BitBoard is checked against it
+		BitBoard bits = new BitBoard(width, height);
+		Random rand = new Random(seed);
+		for (int move = 0; move < 400; move++) {
+			Piece piece = pieces[rand.nextInt(pieces.length)];
+			for (int r = rand.nextInt(4); r > 0; r--) piece = piece.fastRotation();
+			int x = rand.nextInt(width - piece.getWidth() + 1);
+			int y = board.dropHeight(piece, x);
+			assertEquals(y, bits.dropHeight(piece, x));
+			if (y + piece.getHeight() > height) { // topped out, start over
+				board = new Board(width, height);
+				board.setCheckMode(Board.CheckMode.OFF);
+				bits = new BitBoard(width, height);
+				continue;
+			}
+			int probeX = rand.nextInt(width + 2) - 1, probeY = rand.nextInt(height + 2) - 1;
+			assertEquals(board.placementResult(piece, probeX, probeY), bits.placementResult(piece, probeX, probeY));
+			assertEquals(board.placementResult(piece, x, y), bits.placementResult(piece, x, y));
+			assertEquals(board.place(piece, x, y), bits.place(piece, x, y));
+			assertEquals(board.clearRows(), bits.clearRows());
+			assertSameBoards(board, bits);
+			if (rand.nextInt(4) == 0) { board.undo(); bits.undo(); }
+			else { board.commit(); bits.commit(); }
+			assertSameBoards(board, bits);
+		}
+	}
+
+	@Test
+	// the INCREMENTAL mode passes on good boards, marks and clears included
+	public void testIncrementalChecks() {
+		BitBoard bits = new BitBoard(6, 12);
+		bits.setCheckMode(Board.CheckMode.INCREMENTAL); // throws on a violation
+		Random rand = new Random(4);
+		int empty = bits.mark();
+		for (int move = 0; move < 300; move++) {
+			Piece piece = pieces[rand.nextInt(pieces.length)];
+			int x = rand.nextInt(6 - piece.getWidth() + 1);
+			int y = bits.dropHeight(piece, x);
+			if (y + piece.getHeight() > 12) { // topped out, back to the empty board
+				bits.rollbackTo(empty);
+				empty = bits.mark();
+				continue;
+			}
+			int mark = rand.nextInt(3) == 0 ? bits.mark() : -1;
+			bits.place(piece, x, y);
+			bits.clearRows();
+			if (rand.nextInt(4) == 0) bits.undo();
+			else bits.commit();
+			if (mark >= 0) {
+				if (rand.nextBoolean()) bits.rollbackTo(mark);
+				else bits.release(mark);
+			}
+		}
+		assertTrue(bits.getCheckCount() > 300);
+		assertEquals(0, bits.getViolationCount());
+	}
+
+	@Test
+	// the INCREMENTAL mode never does the full scan, which a broken getHeight() fails
+	public void testIncrementalIsNotFull() {
+		final boolean[] broken = new boolean[1];
+		BitBoard bits = new BitBoard(6, 12) {
+			@Override
+			public int getHeight() { return broken[0] ? 0 : super.getHeight(); }
+		};
+		bits.setViolationHandler((board, description) -> { });
+		for (Board.CheckMode mode : new Board.CheckMode[] { Board.CheckMode.INCREMENTAL, Board.CheckMode.FULL }) {
+			broken[0] = false;
+			bits.setCheckMode(mode);
+			bits.place(pieces[Piece.STICK], 5, bits.getColumnHeight(5)); // stays in, so the full scan has heights to miss
+			bits.commit();
+			int mark = bits.mark();
+			bits.place(pieces[Piece.SQUARE], 0, bits.getColumnHeight(0));
+			bits.commit();
+			broken[0] = true;
+			bits.rollbackTo(mark); // checked with the board broken
+		}
+		assertEquals(1, bits.getViolationCount()); // the FULL rollback only
+	}
+
+	@Test
+	public void testRandomGamesMatchBoard() {
+		playRandomGame(10, 24, 1);
+		playRandomGame(4, 8, 2);
+		playRandomGame(64, 30, 3);
+		playRandomGame(10, 200, 6); // tall, rows move through the line table
+	}
+
+	@Test
+	public void testPlaceErrorsAndUndo() {
+		BitBoard bits = new BitBoard(2, 4);
+		assertEquals(Board.PLACE_OK, bits.place(pieces[Piece.STICK], 0, 0));
+		bits.commit();
+		assertEquals(Board.PLACE_BAD, bits.place(pieces[Piece.STICK], 0, 0));
+		bits.undo();
+		assertEquals(Board.PLACE_OUT_BOUNDS, bits.place(pieces[Piece.SQUARE], 1, 0));
+		bits.undo();
+		assertEquals(4, bits.getMaxHeight());
+		assertEquals(0, bits.getColumnHeight(1));
+		assertEquals(Board.PLACE_ROW_FILLED, bits.place(pieces[Piece.STICK], 1, 0));
+		assertEquals(4, bits.clearRows());
+		assertEquals(0, bits.getMaxHeight());
+		bits.undo();
+		assertEquals(4, bits.getMaxHeight());
+		assertEquals(1, bits.getRowWidth(3));
+	}
+
+	@Test
+	// Opens a mark before every move and rolls random depths back on both boards.
+	public void testMarksMatchBoard() {
+		Board board = new Board(6, 16);
+		board.setCheckMode(Board.CheckMode.OFF);
+		BitBoard bits = new BitBoard(6, 16);
+		Random rand = new Random(4);
+		int depth = 0;
+		for (int move = 0; move < 300; move++) {
+			Piece piece = pieces[rand.nextInt(pieces.length)];
+			int x = rand.nextInt(6 - piece.getWidth() + 1);
+			int y = board.dropHeight(piece, x);
+			if (y + piece.getHeight() <= 16) {
+				assertEquals(depth, board.mark());
+				assertEquals(depth, bits.mark());
+				depth++;
+				assertEquals(board.place(piece, x, y), bits.place(piece, x, y));
+				assertEquals(board.clearRows(), bits.clearRows());
+				board.commit();
+				bits.commit();
+			}
+			if (depth > 0 && (rand.nextInt(3) == 0 || y + piece.getHeight() > 16)) {
+				depth = rand.nextInt(depth);
+				board.rollbackTo(depth);
+				bits.rollbackTo(depth);
+			}
+			assertSameBoards(board, bits);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooWide() {
+		new BitBoard(BitBoard.MAX_WIDTH + 1, 10);
+	}
+}
@@ -3,6 +3,7 @@
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Locale;
 
 /**
  CS108 Tetris Board.
@@ -16,19 +17,47 @@ public class Board{
 	// Some ivars are stubbed out for you:
 	private int width;
 	private int height;
-	private boolean[][] grid;
-	private boolean DEBUG = true;
+	private boolean[][] lines; // the blocks of every row, lines[lineAt[y]][x] is the block (x, y)
+	private int[] lineAt; // which line holds row y -- rows move by moving these indexes
+	private int[] recycled; // lines of the rows being cleared
+	private CheckMode checkMode = defaultCheckMode;
 	boolean committed;
 
 	private int[] widths; // array saves widths for every row
 	private int[] heights; // array saves heights for every column
 	private int maxHeight;
 
-	// for backup
-	private int[] xWidthsBackUp;
-	private int[] yHeightsBackUp;
-	private boolean[][] gridBackUp;
-	private int maxHeightBackUp;
+	// Zobrist-style hash of the blocks, see getHash()
+	private long[] rowKeys; // XOR of the column keys of every filled block in a row
+	private long fullRowKey; // the row key of a filled row
+	private long hash;
+
+	// board features kept up to date with every change, see getHoles() and friends
+	private int filledBlocks;
+	private int sumHeight;
+	private int bumpiness;
+	private int wellDepth;
+	private int rawTransitions; // row transitions counting every row, an empty row has 2
+	private int nonEmptyRows;
+
+	// consistency checking, see CheckMode
+	private CheckMode pausedCheckMode = CheckMode.FULL; // brought back by changeDebugStatus()
+	private ViolationHandler violationHandler = THROW_ON_VIOLATION;
+	private int sampleEvery = 64;
+	private long changes; // changes since the board was created
+	private long checks;
+	private long violations;
+	private int touchedMinX = Integer.MAX_VALUE, touchedMaxX = -1; // changed since the last check
+	private int touchedMinY = Integer.MAX_VALUE, touchedMaxY = -1;
+
+	// for undo -- a journal of the changes made since the last commit
+	private int[] journal;
+	private int journalSize;
+	private static final int JOURNAL_CELL = -1; // tag of a putNewPoint entry
+	private static final int JOURNAL_CLEAR = -2; // tag of a clearRows entry
+	private int commitSize; // journal size at the last commit, undo() goes back to it
+	private int[] marks; // journal sizes of the open savepoints, see mark()
+	private int marksSize;
 	// Here a few trivial methods are provided:
 	
 	/**
@@ -36,18 +65,35 @@ public class Board{
 	 measured in blocks.
 	*/
 	public Board(int width, int height) {
+		this(width, height, true);
+	}
+
+	/**
+	 Creates a board of the given size. When withGrid is false only the sizes
+	 and the committed state are set up -- used by engines (see BitBoard)
+	 that keep the cells their own way and override the grid operations.
+	*/
+	protected Board(int width, int height, boolean withGrid) {
 		ValidBoardSizes(width, height);
-		InitAllInstances(width, height);
-		InitBackUps();
+		if (withGrid) {
+			InitAllInstances(width, height);
+			InitJournal();
+		}
+		else {
+			this.width = width;
+			this.height = height;
+			committed = true;
+		}
 	}
 
 	/**
-	 * Initializes helper-arrays for storing a pre-version of the table.
+	 * Initializes the undo journal. It grows on demand, a placement
+	 * plus a clear rarely needs more than a few dozen ints.
 	 */
-	private void InitBackUps() {
-		xWidthsBackUp = new int[height];
-		yHeightsBackUp = new int[width];
-		gridBackUp = new boolean[width][height];
+	private void InitJournal() {
+		journal = new int[4 * width + 32];
+		journalSize = 0;
+		marks = new int[8];
 	}
 
 	/**
@@ -57,10 +103,16 @@ public class Board{
 	private void InitAllInstances(int width, int height) {
 		this.width = width;
 		this.height = height;
-		grid = new boolean[width][height];
+		lines = new boolean[height][width];
+		lineAt = new int[height];
+		for(int h = 0; h < height; h ++) lineAt[h] = h;
+		recycled = new int[height];
 		committed = true;
 		widths = new int[height];
 		heights = new int[width];
+		rowKeys = new long[height];
+		for(int w = 0; w < width; w ++) fullRowKey ^= columnKey(w);
+		recomputeFeatures();
 	}
 
 	/**
@@ -91,33 +143,338 @@ public class Board{
 	*/
 	public int getMaxHeight() { return maxHeight; }
 
+	/*
+	 Board features. They are kept up to date by every place(), clearRows(),
+	 undo() and rollbackTo(), so each getter is O(1) -- evaluators don't
+	 need to rescan the grid. A placement only touches the columns and
+	 rows of its blocks; a clear recomputes everything, which costs the
+	 same as the clear itself.
+	*/
+
+	/**
+	 Returns the number of holes -- empty blocks below the top
+	 block of their column.
+	*/
+	public int getHoles() { return sumHeight - filledBlocks; }
+
+	/**
+	 Returns the sum of all the column heights.
+	*/
+	public int getSumHeight() { return sumHeight; }
+
+	/**
+	 Returns the bumpiness -- the sum of the height differences
+	 of every two neighbouring columns.
+	*/
+	public int getBumpiness() { return bumpiness; }
+
+	/**
+	 Returns the sum of the well depths. A column is a well as deep as its
+	 lower neighbour is above it; the walls count as full columns.
+	*/
+	public int getWellDepth() { return wellDepth; }
+
+	/**
+	 Returns the number of filled/empty changes walking across the
+	 non-empty rows, the walls count as filled.
+	*/
+	public int getRowTransitions() { return rawTransitions - 2 * (height - nonEmptyRows); }
+
+	/**
+	 * Sets the height of a column and fixes the height based features --
+	 * only the terms of the column and its two neighbours can change.
+	 */
+	private void setColumnHeight(int x, int newHeight) {
+		int from = Math.max(x - 1, 0), to = Math.min(x + 1, width - 1);
+		for(int w = from; w <= to; w ++) wellDepth -= wellAt(w);
+		bumpiness -= bumpAt(x) + bumpAt(x + 1);
+		sumHeight += newHeight - heights[x];
+		heights[x] = newHeight;
+		bumpiness += bumpAt(x) + bumpAt(x + 1);
+		for(int w = from; w <= to; w ++) wellDepth += wellAt(w);
+	}
+
+	/**
+	 * Returns the height difference between columns x - 1 and x,
+	 * 0 when one of them is outside of the board.
+	 */
+	private int bumpAt(int x) {
+		if(x <= 0 || x >= width) return 0;
+		return Math.abs(heights[x] - heights[x - 1]);
+	}
+
+	/**
+	 * Returns the well depth of column x, the walls are as high as the board.
+	 */
+	private int wellAt(int x) {
+		int left = x == 0 ? height : heights[x - 1];
+		int right = x == width - 1 ? height : heights[x + 1];
+		return Math.max(0, Math.min(left, right) - heights[x]);
+	}
+
+	/**
+	 * Fixes the row transitions before the block (x, y) flips. The two
+	 * borders of the block change from "different" to "same" and back,
+	 * so the delta is 2 - 2 * (current differences). Walls are filled.
+	 */
+	private void flipTransitions(int x, int y) {
+		boolean[] line = lines[lineAt[y]];
+		boolean block = line[x];
+		int differences = 0;
+		if((x == 0 || line[x - 1]) != block) differences ++;
+		if((x == width - 1 || line[x + 1]) != block) differences ++;
+		rawTransitions += 2 - 2 * differences;
+	}
+
+	/**
+	 * Recomputes the features that depend only on the heights -- O(width).
+	 */
+	private void recomputeHeightFeatures() {
+		sumHeight = bumpiness = wellDepth = 0;
+		for(int w = 0; w < width; w ++) {
+			sumHeight += heights[w];
+			bumpiness += bumpAt(w);
+			wellDepth += wellAt(w);
+		}
+	}
+
+	/**
+	 * Recomputes every feature from the grid, heights and widths.
+	 */
+	private void recomputeFeatures() {
+		int[] features = countFeatures();
+		filledBlocks = features[0];
+		sumHeight = features[1];
+		bumpiness = features[2];
+		wellDepth = features[3];
+		rawTransitions = features[4];
+		nonEmptyRows = features[5];
+	}
+
+	/**
+	 * Counts the features from scratch: filled blocks, sum of heights,
+	 * bumpiness, well depth, raw row transitions and non-empty rows.
+	 */
+	private int[] countFeatures() {
+		int[] features = new int[6];
+		for(int w = 0; w < width; w ++) {
+			features[1] += heights[w];
+			features[2] += bumpAt(w);
+			features[3] += wellAt(w);
+		}
+		features[4] = 2 * (height - maxHeight); // rows above maxHeight are empty
+		for(int h = 0; h < maxHeight; h ++) {
+			features[0] += widths[h];
+			if(widths[h] > 0) features[5] ++;
+			boolean last = true; // the left wall
+			for(boolean block : lines[lineAt[h]]) {
+				if(block != last) features[4] ++;
+				last = block;
+			}
+			if(!last) features[4] ++; // the right wall
+		}
+		return features;
+	}
+
+	/**
+	 How much consistency checking the board does after every change
+	 (place, clearRows, undo, rollbackTo).
+	 <ul>
+	 <li>OFF -- nothing, for production.
+	 <li>SAMPLED -- a full check every Nth change, see setSampleEvery().
+	 <li>INCREMENTAL -- only the columns and rows touched since the last check.
+	 <li>FULL -- everything, after every change. Costs O(width*height).
+	 </ul>
+	 New boards use the default mode -- FULL, unless the "board.check" system
+	 property or setDefaultCheckMode() says otherwise.
+	*/
+	public enum CheckMode { OFF, SAMPLED, INCREMENTAL, FULL }
+
+	/**
+	 Gets the violations found by the consistency checks.
+	*/
+	public interface ViolationHandler {
+		void violation(Board board, String description);
+	}
+
+	/**
+	 The default handler -- throws a RuntimeException with the description.
+	*/
+	public static final ViolationHandler THROW_ON_VIOLATION = new ViolationHandler() {
+		public void violation(Board board, String description) {
+			throw new RuntimeException(description);
+		}
+	};
+
+	private static volatile CheckMode defaultCheckMode = checkModeProperty();
+
+	/**
+	 * Reads the "board.check" property. A bad value must not keep Board from
+	 * loading, so it falls back to FULL with a message on System.err.
+	 */
+	private static CheckMode checkModeProperty() {
+		String value = System.getProperty("board.check", "full");
+		try {
+			return CheckMode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			System.err.println("Board: unknown board.check mode \"" + value + "\", using FULL. Modes are "
+					+ Arrays.toString(CheckMode.values()).toLowerCase(Locale.ROOT) + ".");
+			return CheckMode.FULL;
+		}
+	}
+
+	/**
+	 Sets the check mode of the boards created from now on.
+	*/
+	public static void setDefaultCheckMode(CheckMode mode) { defaultCheckMode = mode; }
+
+	/**
+	 Sets the check mode of this board.
+	*/
+	public void setCheckMode(CheckMode mode) {
+		if(mode == null) throw new IllegalArgumentException("Your check mode is invalid.");
+		checkMode = mode;
+	}
+
+	public CheckMode getCheckMode() { return checkMode; }
+
+	/**
+	 Sets how often the SAMPLED mode runs a full check -- every n-th change.
+	*/
+	public void setSampleEvery(int n) {
+		if(n <= 0) throw new IllegalArgumentException("Your sample rate is invalid.");
+		sampleEvery = n;
+	}
+
+	/**
+	 Sets who gets the violations -- THROW_ON_VIOLATION by default.
+	 A handler that only counts or logs lets canary runs keep going.
+	*/
+	public void setViolationHandler(ViolationHandler handler) {
+		if(handler == null) throw new IllegalArgumentException("Your handler is invalid.");
+		violationHandler = handler;
+	}
+
+	/**
+	 Returns how many consistency checks have run on this board.
+	*/
+	public long getCheckCount() { return checks; }
+
+	/**
+	 Returns how many checks have found a violation.
+	*/
+	public long getViolationCount() { return violations; }
+
 	/**
 	 Checks the board for internal consistency -- used
-	 for debugging.
+	 for debugging. Does a full check unless the mode is OFF.
 	*/
 	public void sanityCheck() {
-		if (DEBUG) {
-			System.out.println(toString());
-			int checkMaxHeight = 0;
-			boolean validHeights = true;
-			int[] validWidths = new int[getHeight()];
-			for(int w = 0; w < getWidth(); w ++) {
-				int currHeight = 0;
-				for (int h = 0; h < getHeight(); h++)
-					if (grid[w][h]) {
-						currHeight = h + 1;
-						validWidths[h] ++;
-					}
-				validHeights &= (heights[w] == currHeight);
-			    checkMaxHeight = Math.max(checkMaxHeight, currHeight);
-			}
-			String text = "Description: ";
-			if(!validHeights) text += " Heights are incorrect. ";
-			if(!Arrays.equals(validWidths, widths)) text += " Widths are incorrect. ";
-			if(checkMaxHeight != getMaxHeight()) text += " MaxHeight is incorrect. ";
-			if(!text.equals("Description: ")) throw new RuntimeException(text);
+		if(checkMode != CheckMode.OFF) runCheck(false);
+	}
+
+	/**
+	 * Called after every change, runs the check the mode asks for.
+	 * The OFF mode costs just this one compare.
+	 */
+	protected void afterChange() {
+		if(checkMode == CheckMode.OFF) return;
+		changes ++;
+		if(checkMode == CheckMode.SAMPLED && changes % sampleEvery != 0) return;
+		runCheck(checkMode == CheckMode.INCREMENTAL);
+	}
+
+	/**
+	 * Runs one check and hands a violation, if any, to the handler.
+	 */
+	private void runCheck(boolean touchedOnly) {
+		checks ++;
+		String text = touchedOnly ? checkTouched() : checkAll();
+		touchedMinX = touchedMinY = Integer.MAX_VALUE;
+		touchedMaxX = touchedMaxY = -1;
+		if(text != null) {
+			violations ++;
+			violationHandler.violation(this, text + "\n" + toString());
 		}
 	}
+
+	/**
+	 * Remembers that the block (x, y) changed, for the INCREMENTAL mode.
+	 */
+	private void touch(int x, int y) {
+		touchedMinX = Math.min(touchedMinX, x);
+		touchedMaxX = Math.max(touchedMaxX, x);
+		touchedMinY = Math.min(touchedMinY, y);
+		touchedMaxY = Math.max(touchedMaxY, y);
+	}
+
+	/**
+	 * Checks everything -- heights, widths, maxHeight, features and the hash.
+	 * Returns the description of what is wrong, or null.
+	 */
+	protected String checkAll() {
+		int checkMaxHeight = 0;
+		boolean validHeights = true;
+		int[] validWidths = new int[getHeight()];
+		for(int w = 0; w < getWidth(); w ++) {
+			int currHeight = 0;
+			for (int h = 0; h < getHeight(); h++)
+				if (lines[lineAt[h]][w]) {
+					currHeight = h + 1;
+					validWidths[h] ++;
+				}
+			validHeights &= (heights[w] == currHeight);
+		    checkMaxHeight = Math.max(checkMaxHeight, currHeight);
+		}
+		String text = "Description: ";
+		if(!validHeights) text += " Heights are incorrect. ";
+		if(!Arrays.equals(validWidths, widths)) text += " Widths are incorrect. ";
+		if(checkMaxHeight != getMaxHeight()) text += " MaxHeight is incorrect. ";
+		else if(!Arrays.equals(countFeatures(), new int[] {filledBlocks, sumHeight,
+				bumpiness, wellDepth, rawTransitions, nonEmptyRows})) text += " Features are incorrect. ";
+		else if(countHash() != hash) text += " Hash is incorrect. ";
+		return text.equals("Description: ") ? null : text;
+	}
+
+	/**
+	 * Checks only the columns and rows touched since the last check,
+	 * plus what the heights alone give (maxHeight, sum of heights).
+	 * Returns the description of what is wrong, or null.
+	 */
+	protected String checkTouched() {
+		String text = "Description: ";
+		for(int w = touchedMinX; w <= touchedMaxX; w ++) {
+			int currHeight = height;
+			while(currHeight > 0 && !lines[lineAt[currHeight - 1]][w]) currHeight --;
+			if(heights[w] != currHeight) { text += " Height of column " + w + " is incorrect. "; break; }
+		}
+		for(int h = touchedMinY; h <= touchedMaxY; h ++) {
+			int currWidth = 0;
+			for(boolean block : lines[lineAt[h]]) if(block) currWidth ++;
+			if(widths[h] != currWidth) { text += " Width of row " + h + " is incorrect. "; break; }
+		}
+		int checkMaxHeight = 0, checkSumHeight = 0;
+		for(int w = 0; w < width; w ++) {
+			checkMaxHeight = Math.max(checkMaxHeight, heights[w]);
+			checkSumHeight += heights[w];
+		}
+		if(checkMaxHeight != maxHeight) text += " MaxHeight is incorrect. ";
+		if(checkSumHeight != sumHeight) text += " Sum of heights is incorrect. ";
+		return text.equals("Description: ") ? null : text;
+	}
+
+	/**
+	 * Computes the hash from the blocks, without the row keys.
+	 */
+	private long countHash() {
+		long check = 0;
+		for(int h = 0; h < maxHeight; h ++) {
+			long key = 0;
+			for(int w = 0; w < width; w ++) if(lines[lineAt[h]][w]) key ^= columnKey(w);
+			check ^= rowHash(key, h);
+		}
+		return check;
+	}
 	
 	/**
 	 Given a piece and an x, returns the y
@@ -132,17 +489,53 @@ public class Board{
 	public int dropHeight(Piece piece, int x) {
 		if(!isInBounds(x, 0))
 			throw new IllegalArgumentException("Your x coordinate is invalid for this board.");
+		return dropHeight(heights, piece, x);
+	}
+
+	/**
+	 * dropHeight() for any engine, given its column heights.
+	 */
+	static int dropHeight(int[] heights, Piece piece, int x) {
 		int firstTouchY = 0;
-		int[] skirt = piece.getSkirt();
+		int skirtLength = piece.getWidth();
 		// w - is actual column index. We are searching possible touch points from x.
-		for(int w = x; w < skirt.length + x; w ++) {
+		for(int w = x; w < skirtLength + x; w ++) {
 			// heights[w] - skirt[w - x] - this is possible collapse's Y coordinate.
-			firstTouchY = Math.max(firstTouchY, heights[w] - skirt[w - x]);
+			firstTouchY = Math.max(firstTouchY, heights[w] - piece.skirtAt(w - x));
 		}
 		return firstTouchY;
 	}
 	
 	
+	/**
+	 Computes dropHeight() for every x where the piece fits across the board,
+	 out[x] gets the landing y. Returns how many x values were filled in --
+	 getWidth() - piece.getWidth() + 1, or 0 if the piece is too wide.
+	 One pass over the heights per skirt column, no allocation.
+	*/
+	public int dropHeights(Piece piece, int[] out) {
+		return dropHeights(heights, width, piece, out);
+	}
+
+	/**
+	 * dropHeights() for any engine, given its column heights.
+	 * Loops column by column of the skirt: each pass is a plain
+	 * max over two arrays, which the JIT can vectorise.
+	 */
+	static int dropHeights(int[] heights, int width, Piece piece, int[] out) {
+		int skirtLength = piece.getWidth();
+		int count = width - skirtLength + 1;
+		if(count <= 0) return 0;
+		if(out.length < count) throw new IllegalArgumentException("Your out array is too short.");
+		Arrays.fill(out, 0, count, 0);
+		for(int i = 0; i < skirtLength; i ++) {
+			int low = piece.skirtAt(i);
+			for(int x = 0; x < count; x ++)
+				out[x] = Math.max(out[x], heights[x + i] - low);
+		}
+		return count;
+	}
+
 	/**
 	 Returns the height of the given column --
 	 i.e. the y value of the highest block + 1.
@@ -173,9 +566,64 @@ public class Board{
 	 Blocks outside of the valid width/height area
 	 always return true.
 	*/
-	public boolean getGrid(int x, int y) { return !isInBounds(x, y) || grid[x][y]; }
+	public boolean getGrid(int x, int y) { return !isInBounds(x, y) || lines[lineAt[y]][x]; }
 	
 	
+	/**
+	 Returns a 64-bit Zobrist-style hash of the blocks in the board.
+	 It is kept up to date by place(), clearRows(), undo() and rollbackTo(),
+	 so reading it is O(1). Boards of the same size with the same blocks
+	 have the same hash, whatever the engine (Board, BitBoard, PersistentBoard),
+	 so it can key transposition tables and memoised evaluators.
+	*/
+	public long getHash() { return hash; }
+
+	/*
+	 Zobrist-style keys. Every column has a fixed random key, a row's key is
+	 the XOR of the keys of its filled blocks, and the board hash is the XOR
+	 of rowHash(rowKey, y) over the rows. Mixing y in per row (instead of
+	 per block) lets bitmask engines key a whole row at once, see rowKey().
+	*/
+	private static final long[][] ROW_KEY_TABLE = new long[8][256]; // row keys of every byte of a bitmask
+	static {
+		for(int b = 0; b < 8; b ++)
+			for(int bits = 1; bits < 256; bits ++)
+				ROW_KEY_TABLE[b][bits] = ROW_KEY_TABLE[b][bits & (bits - 1)]
+						^ columnKey(8 * b + Integer.numberOfTrailingZeros(bits));
+	}
+
+	/**
+	 * Returns the random key of column x.
+	 */
+	static long columnKey(int x) { return mix(x + 0x632BE59BD9B4E019L); }
+
+	/**
+	 * Returns the key of a row given as a bitmask (bit x is column x) --
+	 * at most 8 table lookups.
+	 */
+	static long rowKey(long bits) {
+		long key = 0;
+		for(int b = 0; bits != 0; b ++, bits >>>= 8) key ^= ROW_KEY_TABLE[b][(int) (bits & 0xFF)];
+		return key;
+	}
+
+	/**
+	 * Returns what a row with the given key adds to the board hash at height y.
+	 * Empty rows add nothing.
+	 */
+	static long rowHash(long rowKey, int y) {
+		return rowKey == 0 ? 0 : mix(rowKey + (y + 1) * 0x9E3779B97F4A7C15L);
+	}
+
+	/**
+	 * The splitmix64 finalizer -- a cheap, well mixing 64 bit permutation.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
 	public static final int PLACE_OK = 0;
 	public static final int PLACE_ROW_FILLED = 1;
 	public static final int PLACE_OUT_BOUNDS = 2;
@@ -201,27 +649,50 @@ public class Board{
 		if(piece == null) throw new IllegalArgumentException("Your piece is invlaid");
 		if (!committed) throw new RuntimeException("place commit problem");
 		committed = false;
-		doBackUp();
 		int result = PLACE_OK;
-		TPoint[] body = piece.getBody();
-		for(int i = 0; i < body.length; i ++) {
-			int currStatus = getTPointStatus(body[i], x, y);
+		for(int i = 0; i < piece.bodySize(); i ++) {
+			int currStatus = getPointStatus(piece.bodyX(i) + x, piece.bodyY(i) + y);
 			result = Math.max(result, currStatus);
 			if(result >= PLACE_OUT_BOUNDS) break;
 		}
-		sanityCheck();
+		afterChange();
+		return result;
+	}
+
+	/**
+	 Returns what place() would return for this placement -- PLACE_OK,
+	 PLACE_ROW_FILLED, PLACE_OUT_BOUNDS or PLACE_BAD -- without touching
+	 the board. Works in any state, committed or not, and needs no undo().
+	*/
+	public int placementResult(Piece piece, int x, int y) {
+		if(piece == null) throw new IllegalArgumentException("Your piece is invlaid");
+		int result = PLACE_OK;
+		// the same order as place(), so the first bad block decides the error
+		for(int i = 0; i < piece.bodySize(); i ++) {
+			int pointXCord = piece.bodyX(i) + x, pointYCord = piece.bodyY(i) + y;
+			if(!isInBounds(pointXCord, pointYCord)) return PLACE_OUT_BOUNDS;
+			if(lines[lineAt[pointYCord]][pointXCord]) return PLACE_BAD;
+			int sameRow = 0; // blocks of the piece in this row
+			for(int j = 0; j < piece.bodySize(); j ++) if(piece.bodyY(j) == piece.bodyY(i)) sameRow ++;
+			if(widths[pointYCord] + sameRow == width) result = PLACE_ROW_FILLED;
+		}
 		return result;
 	}
 
 	/**
-	 * Copies widths, heights and grid for the backup information.
+	 Returns true if the piece fits at (x, y) -- inside the board and
+	 not on top of any block. Does not change the board.
 	*/
-	private void doBackUp() {
-		System.arraycopy(widths,0, xWidthsBackUp,0, height);
-		System.arraycopy(heights,0, yHeightsBackUp,0, width);
-		for(int i = 0; i < grid.length; i ++)
-			System.arraycopy(grid[i],0,gridBackUp[i],0, grid[i].length); // deep copy
-		maxHeightBackUp = maxHeight;
+	public boolean canPlace(Piece piece, int x, int y) {
+		return placementResult(piece, x, y) <= PLACE_ROW_FILLED;
+	}
+
+	/**
+	 * Appends one int to the undo journal, growing it if needed.
+	 */
+	private void journalPush(int value) {
+		if(journalSize == journal.length) journal = Arrays.copyOf(journal, journalSize * 2);
+		journal[journalSize ++] = value;
 	}
 
 	/**
@@ -231,10 +702,9 @@ public class Board{
 	 * and then checks if y coordinates row is filled at this point - returns status
 	 * according to this information.
 	 */
-	private int getTPointStatus(TPoint p, int x, int y) {
-		int pointXCord = p.x + x, pointYCord = p.y + y;
+	private int getPointStatus(int pointXCord, int pointYCord) {
 		if(!isInBounds(pointXCord, pointYCord)) return PLACE_OUT_BOUNDS;
-		if(grid[pointXCord][pointYCord]) return PLACE_BAD;
+		if(lines[lineAt[pointYCord]][pointXCord]) return PLACE_BAD;
 		// so there can't be more problems
 		putNewPoint(pointXCord, pointYCord);
 		if(widths[pointYCord] == width) return PLACE_ROW_FILLED;
@@ -250,10 +720,61 @@ public class Board{
 	// t   t t t
 	// t t      // in heights, it should save max y coordinate from old height and this point y.
 	private void putNewPoint(int pointXCord, int pointYCord) {
-		grid[pointXCord][pointYCord] = true;
-		heights[pointXCord] = Math.max(heights[pointXCord], pointYCord + 1);
+		// journal entry: x, y, old column height, old maxHeight, tag
+		journalPush(pointXCord);
+		journalPush(pointYCord);
+		journalPush(heights[pointXCord]);
+		journalPush(maxHeight);
+		journalPush(JOURNAL_CELL);
+		flipTransitions(pointXCord, pointYCord);
+		touch(pointXCord, pointYCord);
+		lines[lineAt[pointYCord]][pointXCord] = true;
+		toggleRowKey(pointXCord, pointYCord);
+		setColumnHeight(pointXCord, Math.max(heights[pointXCord], pointYCord + 1));
 		maxHeight = Math.max(maxHeight, heights[pointXCord]); // update maxHeight too
-		widths[pointYCord] ++;
+		if(widths[pointYCord] ++ == 0) nonEmptyRows ++;
+		filledBlocks ++;
+	}
+
+	/**
+	 * Flips the column key of x in row y and updates the board hash
+	 * by swapping the row's old hash for its new one.
+	 */
+	private void toggleRowKey(int x, int y) {
+		hash ^= rowHash(rowKeys[y], y);
+		rowKeys[y] ^= columnKey(x);
+		hash ^= rowHash(rowKeys[y], y);
+	}
+
+	/**
+	 Returns a new, committed board of the same kind with the same blocks
+	 and check mode. The receiver must be in the committed state.
+	 Copies are independent, e.g. one per search thread.
+	*/
+	public Board copy() {
+		return copyInto(new Board(width, height));
+	}
+
+	/**
+	 * Copies the blocks into an empty board of the same size and commits it.
+	 */
+	protected <T extends Board> T copyInto(T board) {
+		if(!committed) throw new RuntimeException("copy commit problem");
+		board.setCheckMode(checkMode);
+		for(int y = 0; y < getMaxHeight(); y ++)
+			for(int x = 0; x < getWidth(); x ++)
+				if(getGrid(x, y)) board.addBlock(x, y);
+		board.commit();
+		return board;
+	}
+
+	/**
+	 * Fills one block without any piece -- used by conversions from other
+	 * board types (see PersistentBoard). The board is left uncommitted.
+	 */
+	void addBlock(int x, int y) {
+		committed = false;
+		putNewPoint(x, y);
 	}
 
 	/**
@@ -268,16 +789,42 @@ public class Board{
 	 Deletes rows that are filled all the way across, moving
 	 things above down. Returns the number of rows cleared.
 	*/
+	/*
+	 Implementation: rows are reached through lineAt, so moving a row down
+	 is moving its line index (and its width and key) -- no cells are copied.
+	 The lines of the cleared rows are emptied and reused as the new top rows.
+	 The cells touched are only those of the cleared rows.
+	*/
 	public int clearRows() {
-		if(committed) { committed = false; doBackUp(); }
-		int rowsCleared = 0;
+		committed = false;
+		int rowsCleared = 0, firstCleared = 0;
 		for(int h = 0; h < maxHeight; h ++){
-			if(widths[h] == width) rowsCleared ++;
+			if(rowsCleared > 0 || widths[h] == width) hash ^= rowHash(rowKeys[h], h); // it moves or goes
+			if(widths[h] == width) {
+				if(rowsCleared == 0) firstCleared = h;
+				recycled[rowsCleared ++] = lineAt[h];
+				journalPush(h);
+			}
 			else moveLinesDown(h, rowsCleared);
 		}
-		addEmptyLines(rowsCleared);
-		updateHeights(rowsCleared);
-		sanityCheck();
+		if(rowsCleared > 0) {
+			// journal entry: cleared row indexes, old heights, old maxHeight, count, tag
+			for(int w = 0; w < width; w ++) journalPush(heights[w]);
+			journalPush(maxHeight);
+			journalPush(rowsCleared);
+			journalPush(JOURNAL_CLEAR);
+			touch(0, firstCleared);
+			touch(width - 1, maxHeight - 1);
+			addEmptyLines(rowsCleared);
+			for(int h = firstCleared; h < maxHeight - rowsCleared; h ++) hash ^= rowHash(rowKeys[h], h);
+			updateHeights(rowsCleared);
+			// full rows have no transitions, the new empty ones have 2
+			filledBlocks -= rowsCleared * width;
+			nonEmptyRows -= rowsCleared;
+			rawTransitions += 2 * rowsCleared;
+			recomputeHeightFeatures();
+		}
+		afterChange();
 		return rowsCleared;
 	}
 
@@ -292,7 +839,7 @@ public class Board{
 			heights[w] -= rowsCleared;
 			// if there is no more filled place under this, automatically height = 0
 			while(heights[w] > 0){
-				if(grid[w][heights[w] - 1]) break;
+				if(lines[lineAt[heights[w] - 1]][w]) break;
 				heights[w] --; // going down step by step
 			}
 			maxHeight = Math.max(maxHeight, heights[w]);
@@ -300,25 +847,27 @@ public class Board{
 	}
 
 	/**
-	 * Add some empty lines because of cleared rows in grid.
+	 * Add some empty lines because of cleared rows in grid --
+	 * the lines of the cleared rows are emptied and put on top.
 	 */
 	private void addEmptyLines(int rowsCleared) {
-		for(int h = maxHeight - rowsCleared; h < maxHeight; h ++) {
-			for (int w = 0; w < width; w ++)
-				grid[w][h] = false;
+		for(int i = 0; i < rowsCleared; i ++) {
+			int h = maxHeight - rowsCleared + i;
+			lineAt[h] = recycled[i];
+			Arrays.fill(lines[lineAt[h]], false);
 			widths[h] = 0;
+			rowKeys[h] = 0;
 		}
 	}
 
 	/**
-	 * Organised one line copying process from old index to new one(index - removedNum).
+	 * Organised one line moving process from old index to new one(index - removedNum).
 	 */
 	private void moveLinesDown(int index, int removedNum) {
 		if(removedNum == 0) return;
-		for(int w = 0; w < width; w ++) {
-			grid[w][index - removedNum] = grid[w][index];
-			widths[index - removedNum] = widths[index];
-		}
+		lineAt[index - removedNum] = lineAt[index];
+		widths[index - removedNum] = widths[index];
+		rowKeys[index - removedNum] = rowKeys[index];
 	}
 
 	/**
@@ -330,69 +879,151 @@ public class Board{
 	*/
 	public void undo() {
 		if(!committed)
-			swapSomeAndItsBackUp();
+			rollBackJournal(commitSize);
 		commit();
-		sanityCheck();
+		afterChange();
 	}
 
 	/**
-	 * Swapping process means getting old information again.
-	 * Here, method makes old (backup info) information new
-	 * and new (actual, current info) - > old
+	 * Reverts journal entries, newest first, until only the first
+	 * "size" ints of the journal are left.
 	 */
-	private void swapSomeAndItsBackUp() {
-		swapGridAndBackUp();
-		swapWidthsAndBackUp();
-		swapHeightsAndBackUp();
-		swapMaxHeightAndBackUp();
+	private void rollBackJournal(int size) {
+		while(journalSize > size) {
+			if(journal[journalSize - 1] == JOURNAL_CELL) undoPoint();
+			else undoClear();
+		}
 	}
 
 	/**
-	 * It organizes swapping maxHeight information.
+	 * Takes back one putNewPoint(): the cell is emptied and the column height
+	 * and maxHeight get their logged values again.
 	 */
-	private void swapMaxHeightAndBackUp() {
-		int tmpMaxHeight = maxHeightBackUp;
-		maxHeightBackUp = maxHeight;
-		maxHeight = tmpMaxHeight;
+	private void undoPoint() {
+		maxHeight = journal[journalSize - 2];
+		int oldHeight = journal[journalSize - 3];
+		int pointYCord = journal[journalSize - 4];
+		int pointXCord = journal[journalSize - 5];
+		journalSize -= 5;
+		flipTransitions(pointXCord, pointYCord);
+		touch(pointXCord, pointYCord);
+		lines[lineAt[pointYCord]][pointXCord] = false;
+		toggleRowKey(pointXCord, pointYCord);
+		setColumnHeight(pointXCord, oldHeight);
+		if(-- widths[pointYCord] == 0) nonEmptyRows --;
+		filledBlocks --;
 	}
 
 	/**
-	 * It organizes swapping heights information.
+	 * Takes back one clearRows(). Only the shifted range is touched: going
+	 * from the old top down, every surviving row moves back up to its old
+	 * index and every cleared index gets one of the top lines back,
+	 * filled again (it was a full row).
 	 */
-	private void swapHeightsAndBackUp() {
-		int[] heightsTmp = yHeightsBackUp;
-		yHeightsBackUp = heights;
-		heights = heightsTmp;
+	private void undoClear() {
+		int rowsCleared = journal[journalSize - 2];
+		int oldMaxHeight = journal[journalSize - 3];
+		int heightsStart = journalSize - 3 - width;
+		int clearedStart = heightsStart - rowsCleared;
+		int firstCleared = journal[clearedStart];
+		int top = oldMaxHeight - rowsCleared;
+		for(int h = firstCleared; h < top; h ++) hash ^= rowHash(rowKeys[h], h);
+		System.arraycopy(lineAt, top, recycled, 0, rowsCleared); // the empty top lines
+		int next = rowsCleared - 1; // next cleared index to meet, from the top
+		for(int h = oldMaxHeight - 1; next >= 0; h --) {
+			if(h == journal[clearedStart + next]) {
+				lineAt[h] = recycled[next];
+				Arrays.fill(lines[lineAt[h]], true);
+				widths[h] = width;
+				rowKeys[h] = fullRowKey;
+				next --;
+			}
+			else moveLineUp(h, next + 1);
+			hash ^= rowHash(rowKeys[h], h);
+		}
+		System.arraycopy(journal, heightsStart, heights, 0, width);
+		maxHeight = oldMaxHeight;
+		touch(0, firstCleared);
+		touch(width - 1, maxHeight - 1);
+		journalSize = clearedStart;
+		filledBlocks += rowsCleared * width;
+		nonEmptyRows += rowsCleared;
+		rawTransitions -= 2 * rowsCleared;
+		recomputeHeightFeatures();
 	}
 
 	/**
-	 * It organizes swapping widths information.
+	 * Reverse of moveLinesDown -- brings row (index - removedNum) back to index.
 	 */
-	private void swapWidthsAndBackUp() {
-		int[] widthsTmp = xWidthsBackUp;
-		xWidthsBackUp = widths;
-		widths = widthsTmp;
+	private void moveLineUp(int index, int removedNum) {
+		lineAt[index] = lineAt[index - removedNum];
+		widths[index] = widths[index - removedNum];
+		rowKeys[index] = rowKeys[index - removedNum];
 	}
 
+
 	/**
-	 * It organizes swapping grids information.
-	 */
-	private void swapGridAndBackUp() {
-		boolean[][] gridTmp = gridBackUp;
-		gridBackUp = grid;
-		grid = gridTmp;
+	 Puts the board in the committed state.
+	 The undo journal is dropped here, unless a savepoint still needs it.
+	*/
+	public void commit() {
+		committed = true;
+		if(marksSize == 0) journalSize = 0;
+		commitSize = journalSize;
+	}
+
+	/**
+	 Opens a savepoint on a committed board and returns its mark.
+	 Any number of place/clearRows/commit rounds may follow;
+	 rollbackTo(mark) brings the board back to this exact state.
+	 Savepoints nest: rolling back to (or releasing) a mark also drops
+	 every mark opened after it. Nothing is allocated per level,
+	 the change journal just keeps growing until the last mark is gone.
+	*/
+	public int mark() {
+		if (!committed) throw new RuntimeException("mark commit problem");
+		if(marksSize == marks.length) marks = Arrays.copyOf(marks, marksSize * 2);
+		marks[marksSize] = journalSize;
+		return marksSize ++;
 	}
 
+	/**
+	 Reverts the board to the state it had when mark() returned the given mark
+	 and leaves it committed. The mark and all marks opened after it are closed.
+	*/
+	public void rollbackTo(int mark) {
+		validMark(mark);
+		rollBackJournal(marks[mark]);
+		marksSize = mark;
+		commit();
+		afterChange();
+	}
 
 	/**
-	 Puts the board in the committed state.
+	 Closes the given mark (and every mark opened after it) without
+	 reverting anything. The board keeps its current state.
 	*/
-	public void commit() { committed = true; }
+	public void release(int mark) {
+		validMark(mark);
+		marksSize = mark;
+		if(committed) commit();
+	}
+
+	/**
+	 * Checks if the mark is one of the open savepoints.
+	 */
+	private void validMark(int mark) {
+		if(mark < 0 || mark >= marksSize) throw new IllegalArgumentException("Your mark is not an open savepoint.");
+	}
 
 	/**
 	 * It is my personal idea to give a client chance want to use debugger or not.
+	 * Switches the checks OFF, or back on to the mode they had before.
 	 */
-	public void changeDebugStatus(){ DEBUG = DEBUG ? false : true; }
+	public void changeDebugStatus(){
+		if(checkMode == CheckMode.OFF) checkMode = pausedCheckMode;
+		else { pausedCheckMode = checkMode; checkMode = CheckMode.OFF; }
+	}
 
 	/*
 	 Renders the board state as a big String, suitable for printing.
@@ -14,8 +14,8 @@ import static junit.framework.TestCase.assertTrue;
 // I have all kind of pieces and their rotations.
 // I have 3 game simulations with checking all information, after every movement.
 // Every test is named according to methods that it calls.
-// Boards simulation is easy to see with boards toString/sanityCheck
-// (It is all pre-organized, so client can see results as output).
+// Boards simulation is easy to see with boards toString -- sanityCheck
+// puts it into every violation report, so a failing check shows the board.
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class BoardTest {
@@ -423,4 +423,179 @@ public class BoardTest {
 	public void validityOfPieceInPlace(){
 		boards[0].place(null, 0,0);
 	}
+
+	@Test
+	// Nested savepoints: three plies on one board, rolled back level by level.
+	public void testZMarkAndRollback(){
+		Board board = new Board(5, 6);
+		board.setCheckMode(Board.CheckMode.OFF);
+		String empty = board.toString();
+		int first = board.mark();
+		assertEquals(Board.PLACE_OK, board.place(sticks[0], 0, 0));
+		board.commit();
+		String oneStick = board.toString();
+		int second = board.mark();
+		assertEquals(Board.PLACE_OK, board.place(squares[0], 1, 0));
+		board.commit();
+		int third = board.mark();
+		assertEquals(Board.PLACE_ROW_FILLED, board.place(squares[0], 3, 0));
+		assertEquals(2, board.clearRows());
+		board.commit();
+		assertEquals(2, board.getMaxHeight());
+		board.rollbackTo(third);
+		assertEquals(3, board.getRowWidth(0));
+		board.rollbackTo(second);
+		assertEquals(oneStick, board.toString());
+		assertEquals(4, board.getMaxHeight());
+		// undo() only goes back to the last commit, even with open marks
+		assertEquals(Board.PLACE_OK, board.place(squares[0], 3, 0));
+		board.undo();
+		assertEquals(oneStick, board.toString());
+		board.rollbackTo(first);
+		assertEquals(empty, board.toString());
+		assertEquals(0, board.getMaxHeight());
+		assertEquals(0, board.getColumnHeight(0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testZRollbackToClosedMark(){
+		Board board = new Board(4, 6);
+		int first = board.mark();
+		int second = board.mark();
+		board.release(first);
+		board.rollbackTo(second);
+	}
+
+	@Test
+	// The hash depends only on the blocks -- not on the order they came in.
+	public void testZHash(){
+		Board first = new Board(4, 6), second = new Board(4, 6);
+		assertEquals(0L, first.getHash());
+		first.place(sticks[0], 0, 0);
+		first.commit();
+		first.place(squares[0], 2, 0);
+		first.commit();
+		long withTwo = first.getHash();
+		second.place(squares[0], 2, 0);
+		second.commit();
+		assertTrue(second.getHash() != withTwo);
+		second.place(sticks[0], 0, 0);
+		assertEquals(withTwo, second.getHash());
+		second.undo();
+		second.place(sticks[0], 0, 0);
+		assertEquals(withTwo, second.getHash());
+		// filling rows 0 and 1 and clearing them leaves the stick's top half
+		assertEquals(Board.PLACE_ROW_FILLED, first.place(sticks[0], 1, 0));
+		assertEquals(2, first.clearRows());
+		Board expected = new Board(4, 6);
+		expected.place(squares[0], 0, 0);
+		assertEquals(expected.getHash(), first.getHash());
+		first.undo();
+		assertEquals(withTwo, first.getHash());
+	}
+
+	@Test
+	// Features after a few moves, a clear and an undo.
+	public void testZFeatures(){
+		Board board = new Board(4, 6);
+		Piece block = new Piece("0 0");
+		assertEquals(0, board.getRowTransitions());
+		assertEquals(0, board.getHoles());
+		// |+   |
+		// |+++ |
+		// |+++ |
+		// |+ + |  - the square floats, so column 1 has a hole
+		board.place(sticks[0], 0, 0);
+		board.commit();
+		board.place(squares[0], 1, 1);
+		board.commit();
+		board.place(block, 2, 0);
+		board.commit();
+		assertEquals(1, board.getHoles());
+		assertEquals(4 + 3 + 3, board.getSumHeight());
+		assertEquals(1 + 0 + 3, board.getBumpiness());
+		assertEquals(3, board.getWellDepth()); // only column 3
+		assertEquals(4 + 2 + 2 + 2, board.getRowTransitions());
+		assertEquals(Board.PLACE_ROW_FILLED, board.place(block, 3, 1));
+		assertEquals(1, board.clearRows());
+		assertEquals(1, board.getHoles());
+		assertEquals(3 + 2 + 2, board.getSumHeight());
+		board.undo();
+		assertEquals(1, board.getHoles());
+		assertEquals(10, board.getSumHeight());
+		assertEquals(10, board.getRowTransitions());
+	}
+
+	@Test
+	// Violations go to the handler, the modes decide how often checks run.
+	public void testZCheckModes(){
+		final int[] seen = new int[1];
+		Board.ViolationHandler counting = new Board.ViolationHandler() {
+			public void violation(Board board, String description) { seen[0] ++; }
+		};
+		Board[] modes = new Board[4];
+		for(int i = 0; i < modes.length; i ++) {
+			modes[i] = new Board(5, 5){
+				@Override // this returns always 0, so every full check fails
+				public int getHeight(){ return 0; }
+			};
+			modes[i].setViolationHandler(counting);
+			modes[i].setCheckMode(Board.CheckMode.values()[i]);
+			modes[i].setSampleEvery(2);
+			for(int move = 0; move < 4; move ++) {
+				modes[i].place(lOnes[3], 0, 0);
+				modes[i].undo();
+			}
+		}
+		assertEquals(0, modes[0].getCheckCount()); // OFF
+		assertEquals(4, modes[1].getCheckCount()); // SAMPLED, every second of 8 changes
+		assertEquals(4, modes[1].getViolationCount());
+		assertEquals(8, modes[2].getCheckCount()); // INCREMENTAL, getHeight() is never used
+		assertEquals(0, modes[2].getViolationCount());
+		assertEquals(8, modes[3].getViolationCount()); // FULL
+		assertEquals(12, seen[0]);
+	}
+
+	@Test
+	// placementResult() predicts place() for every position, even bad ones,
+	// and leaves the board as it was.
+	public void testZPlacementResult(){
+		Board board = new Board(5, 6);
+		board.place(sticks[0], 0, 0);
+		board.commit();
+		board.place(lOnes[1], 1, 0);
+		board.commit();
+		String before = board.toString();
+		Piece[] all = {pyrs[0], pyrs[1], lTwos[2], sOnes[1], squares[0], sticks[1]};
+		for(Piece piece : all)
+			for(int x = -2; x < 6; x ++)
+				for(int y = -2; y < 7; y ++) {
+					int predicted = board.placementResult(piece, x, y);
+					assertEquals(before, board.toString());
+					assertEquals(predicted <= Board.PLACE_ROW_FILLED, board.canPlace(piece, x, y));
+					assertEquals(predicted, board.place(piece, x, y));
+					board.undo();
+				}
+		assertEquals(Board.PLACE_ROW_FILLED, board.placementResult(sticks[0], 4, 0));
+		assertEquals(Board.PLACE_BAD, board.placementResult(squares[0], 0, 0));
+		assertEquals(Board.PLACE_OUT_BOUNDS, board.placementResult(squares[0], 4, 0));
+	}
+
+	@Test
+	// dropHeights() gives dropHeight() of every column at once.
+	public void testZDropHeights(){
+		Board board = new Board(6, 8);
+		board.place(lOnes[0], 0, 0);
+		board.commit();
+		board.place(sOnes[0], 3, 0);
+		board.commit();
+		int[] out = new int[6];
+		Piece[] all = {pyrs[0], pyrs[3], lTwos[1], sTwos[0], squares[0], sticks[0], sticks[1]};
+		for(Piece piece : all) {
+			int count = board.dropHeights(piece, out);
+			assertEquals(6 - piece.getWidth() + 1, count);
+			for(int x = 0; x < count; x ++) assertEquals(board.dropHeight(piece, x), out[x]);
+		}
+		assertEquals(0, new Board(3, 8).dropHeights(sticks[1], out));
+	}
 }
@@ -1,5 +1,10 @@
 // DefaultBrain.java
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
 /**
  Provided code.
  A simple Brain implementation.
@@ -12,9 +17,45 @@
  play with the lowest score. Undo() is used to back-out
  each play before trying the next. To experiment with writing your own
  brain -- just subclass off DefaultBrain and override rateBoard().
+
+ With setPool() the plays are tried in parallel, on copies of the
+ board, and the result is the same move the sequential loop picks.
+ rateBoard() must then be safe to call from several threads.
+
+ Ratings are kept in an EvalCache keyed by the board hash, so a board
+ reached again (by another play, or with the next piece) is not rated
+ twice. rateBoard() must depend on the blocks only -- a subclass that
+ rates by other state calls getEvalCache().clear() when that changes,
+ or turns the cache off with setEvalCache(null).
 */
 
 public class DefaultBrain implements Brain {
+    private static final int SLICE_COLUMNS = 4;    // columns tried by one parallel task
+    
+    private static final int CACHE_ENTRIES = 1 << 15;
+    
+    private ForkJoinPool pool;    // null -- sequential
+    private EvalCache cache = new EvalCache(CACHE_ENTRIES);    // null -- every board is rated
+    
+    /**
+     Tries the plays of bestMove() in parallel on the given pool,
+     or one after another on the caller's thread when it is null.
+    */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+    
+    /**
+     Sets the cache of board ratings, null to rate every board.
+    */
+    public void setEvalCache(EvalCache cache) {
+        this.cache = cache;
+    }
+    
+    public EvalCache getEvalCache() {
+        return cache;
+    }
+    
     /**
      Given a piece and a board, returns a move object that represents
      the best play for that piece, or returns null if no play is possible.
@@ -31,21 +72,23 @@ public class DefaultBrain implements Brain {
         Piece current = piece;
         
         board.commit();
+        if (pool != null) return parallelBestMove(board, piece, limitHeight, move);
+        int[] drops = new int[board.getWidth()];    // landing y of every column
         
         // loop through all the rotations
         while (true) {
             final int yBound = limitHeight - current.getHeight()+1;
-            final int xBound = board.getWidth() - current.getWidth()+1;
+            final int xBound = board.dropHeights(current, drops);
             
             // For current rotation, try all the possible columns
             for (int x = 0; x<xBound; x++) {
-                int y = board.dropHeight(current, x);
+                int y = drops[x];
                 if (y<yBound) {    // piece does not stick up too far
                     int result = board.place(current, x, y);
                     if (result <= Board.PLACE_ROW_FILLED) {
                         if (result == Board.PLACE_ROW_FILLED) board.clearRows();
                         
-                        double score = rateBoard(board);
+                        double score = cachedRate(board);
                         
                         if (score<bestScore) {
                             bestScore = score;
@@ -74,34 +117,128 @@ public class DefaultBrain implements Brain {
     }
     
     
+    /*
+     The parallel bestMove(). Every rotation's columns are cut into
+     slices, each slice plays its columns on its own copy of the board.
+     The slices are listed in the sequential order (rotation, then x), and
+     the reduce keeps the earliest of equal scores -- like the strict
+     "<" of the sequential loop.
+    */
+    private Brain.Move parallelBestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        List<Slice> slices = new ArrayList<>();
+        int width = board.getWidth();
+        Piece current = piece;
+        while (true) {
+            int[] drops = new int[width];
+            int xBound = board.dropHeights(current, drops);
+            int yBound = limitHeight - current.getHeight()+1;
+            for (int x = 0; x < xBound; x += SLICE_COLUMNS)
+                slices.add(new Slice(board, current, drops, yBound, x, Math.min(xBound, x + SLICE_COLUMNS)));
+            current = current.fastRotation();
+            if (current == piece) break;
+        }
+        
+        Slice best = pool.invoke(new RecursiveTask<Slice>() {
+            protected Slice compute() {
+                invokeAll(slices);
+                Slice best = null;
+                for (Slice slice : slices) {    // slices are in sequential order already
+                    Slice result = slice.join();
+                    if (result.bestPiece != null && (best == null || result.bestScore < best.bestScore)) best = result;
+                }
+                return best;
+            }
+        });
+        
+        if (best == null) return(null);    // could not find a play at all!
+        move.x = best.bestX;
+        move.y = best.bestY;
+        move.piece = best.bestPiece;
+        move.score = best.bestScore;
+        return(move);
+    }
+    
+    
+    /*
+     Columns [fromX, toX) of one rotation, played on a copy of the board.
+     The board is only read while it is copied.
+    */
+    private final class Slice extends RecursiveTask<Slice> {
+        private static final long serialVersionUID = 1L;
+        private final Board board;
+        private final Piece piece;
+        private final int[] drops;
+        private final int yBound, fromX, toX;
+        double bestScore = 1e20;
+        int bestX, bestY;
+        Piece bestPiece;
+        
+        Slice(Board board, Piece piece, int[] drops, int yBound, int fromX, int toX) {
+            this.board = board;
+            this.piece = piece;
+            this.drops = drops;
+            this.yBound = yBound;
+            this.fromX = fromX;
+            this.toX = toX;
+        }
+        
+        protected Slice compute() {
+            Board copy = null;    // made only if some column is low enough
+            for (int x = fromX; x < toX; x++) {
+                int y = drops[x];
+                if (y < yBound) {
+                    if (copy == null) copy = board.copy();
+                    int result = copy.place(piece, x, y);
+                    if (result <= Board.PLACE_ROW_FILLED) {
+                        if (result == Board.PLACE_ROW_FILLED) copy.clearRows();
+                        double score = cachedRate(copy);
+                        if (score < bestScore) {
+                            bestScore = score;
+                            bestX = x;
+                            bestY = y;
+                            bestPiece = piece;
+                        }
+                    }
+                    copy.undo();
+                }
+            }
+            return this;
+        }
+    }
+    
+    
+    /**
+     Returns rateBoard(board), from the cache when the board was rated before.
+     The key is the board hash mixed with the board size.
+    */
+    protected final double cachedRate(Board board) {
+        EvalCache cache = this.cache;
+        if (cache == null) return rateBoard(board);
+        long key = board.getHash() ^ (board.getWidth() * 0x9E3779B97F4A7C15L + board.getHeight());
+        double score = cache.get(key);
+        if (Double.isNaN(score)) {
+            score = rateBoard(board);
+            cache.put(key, score);
+        }
+        return score;
+    }
+    
+    
     /*
      A simple brain function.
      Given a board, produce a number that rates
      that board position -- larger numbers for worse boards.
-     This version just counts the height
+     This version just uses the height
      and the number of "holes" in the board.
     */
     public double rateBoard(Board board) {
         final int width = board.getWidth();
         final int maxHeight = board.getMaxHeight();
         
-        int sumHeight = 0;
-        int holes = 0;
-        
-        // Count the holes, and sum up the heights
-        for (int x=0; x<width; x++) {
-            final int colHeight = board.getColumnHeight(x);
-            sumHeight += colHeight;
-            
-            int y = colHeight - 2;    // addr of first possible hole
-            
-            while (y>=0) {
-                if  (!board.getGrid(x,y)) {
-                    holes++;
-                }
-                y--;
-            }
-        }
+        // The board keeps the holes (empty blocks under the top
+        // of their column) and the sum of the heights up to date
+        final int sumHeight = board.getSumHeight();
+        final int holes = board.getHoles();
         
         double avgHeight = ((double)sumHeight)/width;
         
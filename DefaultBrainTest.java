@@ -0,0 +1,91 @@
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+// The parallel bestMove() must pick exactly the sequential move.
+
+public class DefaultBrainTest {
+	private static final Piece[] pieces = Piece.getPieces();
+
+	// Plays random games with a sequential brain and checks a parallel one
+	// picks the same move on every board.
+	private void assertSameMoves(Board board, long seed) {
+		DefaultBrain sequential = new DefaultBrain();
+		DefaultBrain parallel = new DefaultBrain();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		parallel.setPool(pool);
+		Random rand = new Random(seed);
+		int limit = board.getHeight() - 4;
+		for (int move = 0; move < 150; move++) {
+			Piece piece = pieces[rand.nextInt(pieces.length)];
+			Brain.Move expected = sequential.bestMove(board, piece, limit, null);
+			Brain.Move actual = parallel.bestMove(board, piece, limit, null);
+			if (expected == null) {
+				assertEquals(null, actual);
+				board = board instanceof BitBoard ? new BitBoard(board.getWidth(), board.getHeight())
+						: new Board(board.getWidth(), board.getHeight());
+				continue;
+			}
+			assertSame(expected.piece, actual.piece);
+			assertEquals(expected.x, actual.x);
+			assertEquals(expected.y, actual.y);
+			assertEquals(expected.score, actual.score);
+			// play a random legal move so the boards get rough
+			Piece played = rand.nextBoolean() ? expected.piece : piece;
+			int x = rand.nextInt(board.getWidth() - played.getWidth() + 1);
+			int y = board.dropHeight(played, x);
+			if (y + played.getHeight() <= limit && board.place(played, x, y) <= Board.PLACE_ROW_FILLED) board.clearRows();
+			board.commit();
+		}
+		pool.shutdown();
+	}
+
+	@Test
+	public void testParallelMatchesSequential() {
+		assertSameMoves(new Board(10, 24), 1);
+		assertSameMoves(new BitBoard(10, 24), 2);
+		assertSameMoves(new Board(30, 40), 3);
+	}
+
+	@Test
+	// the cache must not change any move, and a board asked again is not rated again
+	public void testEvalCache() {
+		DefaultBrain cached = new DefaultBrain();
+		DefaultBrain plain = new DefaultBrain();
+		plain.setEvalCache(null);
+		Board board = new Board(10, 24);
+		Random rand = new Random(5);
+		for (int move = 0; move < 60; move++) {
+			Piece piece = pieces[rand.nextInt(pieces.length)];
+			Brain.Move expected = plain.bestMove(board, piece, 20, null);
+			Brain.Move actual = cached.bestMove(board, piece, 20, null);
+			if (expected == null) break;
+			assertSame(expected.piece, actual.piece);
+			assertEquals(expected.x, actual.x);
+			assertEquals(expected.score, actual.score);
+			assertEquals(expected.x, cached.bestMove(board, piece, 20, null).x); // rated from the cache
+			if (board.place(expected.piece, expected.x, expected.y) == Board.PLACE_ROW_FILLED) board.clearRows();
+			board.commit();
+		}
+		assertTrue(cached.getEvalCache().getHits() > 0);
+	}
+
+	@Test
+	public void testCopy() {
+		Board board = new Board(6, 10);
+		board.place(pieces[Piece.L1], 0, 0);
+		board.commit();
+		Board copy = board.copy();
+		assertEquals(board.toString(), copy.toString());
+		assertEquals(board.getHash(), copy.getHash());
+		copy.place(pieces[Piece.SQUARE], 3, 0);
+		copy.commit();
+		assertEquals(0, board.getColumnHeight(3));
+		assertEquals(BitBoard.class, new BitBoard(6, 10).copy().getClass());
+	}
+}
@@ -0,0 +1,133 @@
+// EvalCache.java
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ A fixed-size transposition table from 64-bit keys (board hashes, see
+ Board.getHash(), or key() of a hash and a piece id) to double values.
+ Everything lives in two long arrays, nothing is boxed or allocated
+ after construction.
+
+ <p>
+ Slots are grouped in buckets of 2 ways. A new entry goes into way 0
+ and pushes the old way 0 into way 1, so the entry of way 1 is the one
+ evicted -- the least recently stored of the bucket.
+ A slot keeps key ^ value next to the value, so several threads may
+ share one cache without locks: a slot torn by a concurrent write just
+ fails the check and reads as a miss. Empty slots hold a NaN no put()
+ stores (NaN values are stored as the canonical NaN), so every key,
+ 0 included, is a normal key.
+
+ Typical client code looks like...
+ <pre>
+ EvalCache cache = new EvalCache(1 << 16);
+ double score = cache.get(board.getHash());
+ if (Double.isNaN(score)) cache.put(board.getHash(), score = rate(board));
+ </pre>
+*/
+public final class EvalCache {
+	private static final long EMPTY = 0x7FF0000000000001L; // a NaN, but never Double.doubleToLongBits()
+
+	private final long[] checks; // key ^ value bits of every slot
+	private final long[] values; // value bits of every slot, EMPTY when empty
+	private final int bucketMask;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 Creates a cache for about the given number of entries, rounded up
+	 to a power of two (at least 2).
+	*/
+	public EvalCache(int entries) {
+		if (entries <= 0 || entries > (1 << 30)) throw new IllegalArgumentException("Your cache size is invalid.");
+		int buckets = entries <= 2 ? 1 : Integer.highestOneBit(entries - 1); // half the power of two
+		checks = new long[2 * buckets];
+		values = new long[2 * buckets];
+		Arrays.fill(values, EMPTY);
+		bucketMask = buckets - 1;
+	}
+
+	/**
+	 Returns the value stored for the key, or NaN if there is none.
+	*/
+	public double get(long key) {
+		int slot = bucket(key);
+		for (int way = 0; way < 2; way++, slot++) {
+			long value = values[slot];
+			if (value != EMPTY && (checks[slot] ^ value) == key) {
+				hits.increment();
+				return Double.longBitsToDouble(value);
+			}
+		}
+		misses.increment();
+		return Double.NaN;
+	}
+
+	/**
+	 Stores the value for the key, evicting the older entry of its bucket
+	 if both ways are taken by other keys.
+	*/
+	public void put(long key, double value) {
+		long bits = Double.doubleToLongBits(value); // any NaN as the canonical one, never EMPTY
+		int slot = bucket(key);
+		if (values[slot] == EMPTY || (checks[slot] ^ values[slot]) != key) {
+			// the key is not in way 0: way 0 moves down over way 1
+			boolean inWay1 = values[slot + 1] != EMPTY && (checks[slot + 1] ^ values[slot + 1]) == key;
+			if (values[slot] != EMPTY || inWay1) {
+				if (!inWay1 && values[slot + 1] != EMPTY) evictions.increment();
+				values[slot + 1] = values[slot];
+				checks[slot + 1] = checks[slot];
+			}
+		}
+		values[slot] = bits;
+		checks[slot] = key ^ bits;
+	}
+
+	/**
+	 Empties the cache -- needed when the values of the keys change,
+	 e.g. new weights for rateBoard(). The counters are kept.
+	*/
+	public void clear() {
+		Arrays.fill(checks, 0);
+		Arrays.fill(values, EMPTY);
+	}
+
+	/**
+	 Returns how many entries the cache holds at most.
+	*/
+	public int capacity() { return checks.length; }
+
+	public long getHits() { return hits.sum(); }
+
+	public long getMisses() { return misses.sum(); }
+
+	public long getEvictions() { return evictions.sum(); }
+
+	/**
+	 Combines a board hash and a piece id (Piece.getId()) into one key,
+	 e.g. for caching moves or values per piece.
+	*/
+	public static long key(long boardHash, int pieceId) {
+		return boardHash ^ mix(pieceId + 1L);
+	}
+
+	/**
+	 * First slot of the key's bucket. The hashes are random already, but
+	 * the low bits are spread again for keys made some other way.
+	 */
+	private int bucket(long key) {
+		return ((int) mix(key) & bucketMask) << 1;
+	}
+
+	/**
+	 * The 64-bit finalizer of SplitMix64.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
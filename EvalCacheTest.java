@@ -0,0 +1,83 @@
+import org.junit.Test;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.*;
+
+public class EvalCacheTest {
+	@Test
+	public void testGetAndPut() {
+		EvalCache cache = new EvalCache(16);
+		assertEquals(16, cache.capacity());
+		assertTrue(Double.isNaN(cache.get(42)));
+		cache.put(42, 1.5);
+		cache.put(0, -3); // key 0 is a normal key
+		assertEquals(1.5, cache.get(42));
+		assertEquals(-3.0, cache.get(0));
+		cache.put(42, 2.5); // overwrite in place
+		assertEquals(2.5, cache.get(42));
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0, cache.getEvictions());
+		cache.clear();
+		assertTrue(Double.isNaN(cache.get(42)));
+	}
+
+	@Test
+	// one bucket of 2 ways: the third key evicts the least recently stored one
+	public void testTwoWayEviction() {
+		EvalCache cache = new EvalCache(2);
+		cache.put(1, 10);
+		cache.put(2, 20);
+		assertEquals(0, cache.getEvictions());
+		cache.put(1, 11); // 1 moves back to way 0
+		cache.put(3, 30); // evicts 2
+		assertEquals(1, cache.getEvictions());
+		assertEquals(11.0, cache.get(1));
+		assertEquals(30.0, cache.get(3));
+		assertTrue(Double.isNaN(cache.get(2)));
+	}
+
+	@Test
+	public void testManyKeys() {
+		EvalCache cache = new EvalCache(1 << 10);
+		for (long key = 1; key <= 512; key++) cache.put(key * 0x9E3779B97F4A7C15L, key);
+		int found = 0;
+		for (long key = 1; key <= 512; key++) {
+			double value = cache.get(key * 0x9E3779B97F4A7C15L);
+			if (!Double.isNaN(value)) {
+				assertEquals((double) key, value);
+				found++;
+			}
+		}
+		assertEquals(512 - cache.getEvictions(), found);
+		assertTrue(found > 400);
+	}
+
+	@Test
+	// no key stands for another one or for the empty slots
+	public void testZeroKey() {
+		EvalCache cache = new EvalCache(2);
+		assertTrue(Double.isNaN(cache.get(0)));
+		cache.put(0x9E3779B97F4A7C15L, 1);
+		assertTrue(Double.isNaN(cache.get(0)));
+		cache.put(0, 2);
+		assertEquals(1.0, cache.get(0x9E3779B97F4A7C15L));
+		assertEquals(2.0, cache.get(0));
+		assertEquals(0, cache.getEvictions());
+
+		cache.clear();
+		cache.put(0, 0); // all zero bits
+		assertEquals(0.0, cache.get(0));
+		assertTrue(Double.isNaN(cache.get(0x9E3779B97F4A7C15L)));
+		cache.put(5, Double.NaN); // stored as the canonical NaN, not as an empty slot
+		assertTrue(Double.isNaN(cache.get(5)));
+		assertEquals(0.0, cache.get(0));
+	}
+
+	@Test
+	public void testKeyWithPiece() {
+		long hash = new Board(10, 20).getHash();
+		assertTrue(EvalCache.key(hash, 0) != EvalCache.key(hash, 1));
+		assertTrue(EvalCache.key(hash, 0) != hash);
+	}
+}
@@ -0,0 +1,429 @@
+// GameEngine.java
+
+import java.util.Random;
+
+/**
+ The rules of JTetris without any display: moving the current piece
+ with tick(), landing, row clearing and scoring, new pieces and the
+ game over check. JTetris drives one of these and draws it, but an
+ engine runs on its own as fast as the CPU allows -- for brain
+ evaluation and simulations.
+
+ <p>
+ The rules are exactly the JTetris ones: a piece lands when a DOWN
+ fails and the previous tick was not a successful player move,
+ clearing 1-4 rows scores 5, 10, 20, 40 (50 for more), every new
+ piece scores 1, and the game is lost when a landed piece sticks up
+ into the TOP_SPACE rows above the playing height.
+ UI reactions go through the empty hook methods (pieceMoved() and
+ friends), which JTetris overrides to repaint.
+
+ Typical client code looks like...
+ <pre>
+ GameEngine engine = new GameEngine(10, 20, Piece.getPieces());
+ engine.startGame(new Random(seed));
+ while (engine.isGameOn()) engine.tick(GameEngine.DOWN);
+ int score = engine.getScore();
+ </pre>
+ play() is the fast path for brains: it drops the current piece in
+ the chosen rotation and column without a tick per row.
+*/
+public class GameEngine {
+	// Extra blocks at the top for pieces to start.
+	// If a piece is sticking up into this area
+	// when it has landed -- game over!
+	public static final int TOP_SPACE = 4;
+
+	// the verbs of tick()
+	public static final int ROTATE = 0;
+	public static final int LEFT = 1;
+	public static final int RIGHT = 2;
+	public static final int DROP = 3;
+	public static final int DOWN = 4;
+
+	private final int width;
+	private final int height; // the playing height, the board has TOP_SPACE more
+
+	// The state of a game -- package-accessible so JTetris and
+	// JBrainTetris can look at it and steer the current piece.
+	Board board;
+	Piece[] pieces;
+	Piece currentPiece; // the piece in play or null
+	int currentX;
+	int currentY;
+	boolean moved; // did the player move the piece
+
+	// The piece we're thinking about playing
+	// -- set by computeNewPosition
+	Piece newPiece;
+	int newX;
+	int newY;
+
+	boolean gameOn; // true if we are playing
+	int count; // how many pieces played so far
+	int score;
+	int pieceLimit; // the game stops after this many pieces, 0 for no limit
+	Random random; // the random generator for new pieces
+
+	/**
+	 Creates an engine for a board of the given width and playing height,
+	 with TOP_SPACE more rows above for new pieces.
+	*/
+	public GameEngine(int width, int height, Piece[] pieces) {
+		if (pieces == null || pieces.length == 0) throw new IllegalArgumentException("Your piece set is empty.");
+		this.width = width;
+		this.height = height;
+		this.pieces = pieces.clone();
+		board = newBoard(width, height + TOP_SPACE);
+	}
+
+	/**
+	 Returns the board the game is played on. Engines that want a
+	 different Board kind (e.g. BitBoard) override this.
+	*/
+	protected Board newBoard(int width, int height) {
+		return new Board(width, height);
+	}
+
+	/**
+	 Starts a new game on an empty board, with new pieces
+	 picked by the given random generator.
+	*/
+	public void startGame(Random random) {
+		board = newBoard(width, height + TOP_SPACE);
+		this.random = random;
+		count = 0;
+		score = 0;
+		currentPiece = null;
+		moved = false;
+		gameOn = true;
+		addNewPiece();
+	}
+
+	/**
+	 Ends the game. Calls gameStopped().
+	*/
+	public void stopGame() {
+		gameOn = false;
+		gameStopped();
+	}
+
+	/**
+	 Stops the game after the given number of pieces, 0 for no limit.
+	*/
+	public void setPieceLimit(int limit) {
+		pieceLimit = limit;
+	}
+
+	/**
+	 Plays the next pieces from the given set, starting with the next new piece.
+	*/
+	public void setPieces(Piece[] pieces) {
+		if (pieces == null || pieces.length == 0) throw new IllegalArgumentException("Your piece set is empty.");
+		this.pieces = pieces.clone();
+	}
+
+	public Board getBoard() { return board; }
+
+	public Piece getCurrentPiece() { return currentPiece; }
+
+	public int getCurrentX() { return currentX; }
+
+	public int getCurrentY() { return currentY; }
+
+	public boolean isGameOn() { return gameOn; }
+
+	public int getCount() { return count; }
+
+	public int getScore() { return score; }
+
+	/**
+	 Returns the playing height -- the board is TOP_SPACE rows taller.
+	*/
+	public int getHeight() { return height; }
+
+	/**
+	 Returns a committed copy of the board without the current piece --
+	 what a brain needs to think about the current piece, e.g. on another
+	 thread while the game goes on with the real board.
+	*/
+	public Board snapshot() {
+		if (currentPiece == null) {
+			board.commit();
+			return board.copy();
+		}
+		board.undo();
+		Board copy = board.copy();
+		board.place(currentPiece, currentX, currentY); // back as it was
+		return copy;
+	}
+
+	/**
+	 Given a piece, tries to install that piece
+	 into the board and set it to be the current piece.
+	 If the placement is not possible, then nothing is
+	 placed, and the board is not changed. The board
+	 should be in the committed state when this is called.
+	 Returns the same error code as Board.place().
+	*/
+	public int setCurrent(Piece piece, int x, int y) {
+		// probe first, so a failed move never touches the board
+		int result = board.placementResult(piece, x, y);
+
+		if (result <= Board.PLACE_ROW_FILLED) { // SUCESS
+			board.place(piece, x, y);
+			Piece oldPiece = currentPiece;
+			int oldX = currentX, oldY = currentY;
+			currentPiece = piece;
+			currentX = x;
+			currentY = y;
+			pieceMoved(oldPiece, oldX, oldY);
+		}
+
+		return(result);
+	}
+
+	/**
+	 Selects the next piece, by default randomPiece().
+	 JTetris routes this to its own pickNextPiece().
+	*/
+	protected Piece pickNextPiece() {
+		return randomPiece();
+	}
+
+	/**
+	 Picks a piece from the set with the random generator
+	 given to startGame().
+	*/
+	public Piece randomPiece() {
+		int pieceNum = (int) (pieces.length * random.nextDouble());
+		return pieces[pieceNum];
+	}
+
+	/**
+	 Tries to add a new random piece at the top of the board.
+	 Ends the game if it's not possible.
+	*/
+	public void addNewPiece() {
+		count++;
+		score++;
+
+		if (pieceLimit > 0 && count == pieceLimit+1) {
+			stopGame();
+			return;
+		}
+
+		// commit things the way they are
+		board.commit();
+		currentPiece = null;
+
+		Piece piece = pickNextPiece();
+
+		// Center it up at the top
+		int px = (board.getWidth() - piece.getWidth())/2;
+		int py = board.getHeight() - piece.getHeight();
+
+		// add the new piece to be in play
+		int result = setCurrent(piece, px, py);
+
+		// This probably never happens, since
+		// the blocks at the top allow space
+		// for new pieces to at least be added.
+		if (result>Board.PLACE_ROW_FILLED) {
+			stopGame();
+		}
+		else {
+			pieceAdded();
+		}
+
+		countersChanged();
+	}
+
+	/**
+	 Figures a new position for the current piece
+	 based on the given verb (LEFT, RIGHT, ...).
+	 The board should be in the committed state --
+	 i.e. the piece should not be in the board at the moment.
+	 This is necessary so dropHeight() may be called without
+	 the piece "hitting itself" on the way down.
+
+	 Sets newX, newY, and newPiece to hold
+	 what it thinks the new piece position should be.
+	*/
+	public void computeNewPosition(int verb) {
+		// As a starting point, the new position is the same as the old
+		newPiece = currentPiece;
+		newX = currentX;
+		newY = currentY;
+
+		// Make changes based on the verb
+		switch (verb) {
+			case LEFT: newX--; break;
+
+			case RIGHT: newX++; break;
+
+			case ROTATE:
+				newPiece = newPiece.fastRotation();
+
+				// tricky: make the piece appear to rotate about its center
+				// can't just leave it at the same lower-left origin as the
+				// previous piece.
+				newX = newX + (currentPiece.getWidth() - newPiece.getWidth())/2;
+				newY = newY + (currentPiece.getHeight() - newPiece.getHeight())/2;
+				break;
+
+			case DOWN: newY--; break;
+
+			case DROP:
+				newY = board.dropHeight(newPiece, newX);
+
+				// trick: avoid the case where the drop would cause
+				// the piece to appear to move up
+				if (newY > currentY) {
+					newY = currentY;
+				}
+				break;
+
+			default:
+				throw new RuntimeException("Bad verb");
+		}
+	}
+
+	/**
+	 Changes the position of the current piece with one of the verbs
+	 LEFT RIGHT ROTATE DROP (player moves) or DOWN (the timer).
+	 Before this is called, the piece is at some location in the board.
+	 This advances the piece to be at its next location, and lands it
+	 when it can not go down any more.
+	*/
+	public void tick(int verb) {
+		if (!gameOn) return;
+
+		if (currentPiece != null) {
+			board.undo();	// remove the piece from its old position
+		}
+
+		// Sets the newXXX fields
+		computeNewPosition(verb);
+
+		// try out the new position (rolls back if it doesn't work)
+		int result = setCurrent(newPiece, newX, newY);
+		if (result == Board.PLACE_ROW_FILLED) {
+			rowFilled();
+		}
+
+		boolean failed = (result >= Board.PLACE_OUT_BOUNDS);
+		// if it didn't work, put it back the way it was
+		if (failed) {
+			if (currentPiece != null) board.place(currentPiece, currentX, currentY);
+			pieceMoved(null, 0, 0);
+		}
+
+		/*
+		 How to detect when a piece has landed:
+		 if this move hits something on its DOWN verb,
+		 and the previous verb was also DOWN (i.e. the player was not
+		 still moving it),	then the previous position must be the correct
+		 "landed" position, so we're done with the falling of this piece.
+		*/
+		if (failed && verb==DOWN && !moved) {	// it's landed
+			land();
+		}
+
+		// Note if the player made a successful non-DOWN move --
+		// used to detect if the piece has landed on the next tick()
+		moved = (!failed && verb!=DOWN);
+	}
+
+	/**
+	 The fast path for brains: puts the current piece in the given
+	 rotation at column x, drops it straight down and lands it, as if
+	 it had been rotated, moved and dropped with nothing in the way.
+	 Returns false (and changes nothing) if the rotation is not one of
+	 the current piece's or the piece does not fit there.
+	*/
+	public boolean play(Piece rotation, int x) {
+		if (!gameOn || currentPiece == null) return false;
+		Piece piece = currentPiece;
+		while (!piece.equals(rotation)) {
+			piece = piece.fastRotation();
+			if (piece == currentPiece) return false;
+		}
+		board.undo();
+		if (x < 0 || x + piece.getWidth() > board.getWidth()) {
+			board.place(currentPiece, currentX, currentY);
+			return false;
+		}
+		int y = Math.min(board.dropHeight(piece, x), currentY);
+		if (setCurrent(piece, x, y) > Board.PLACE_ROW_FILLED) {
+			board.place(currentPiece, currentX, currentY);
+			return false;
+		}
+		land();
+		moved = false;
+		return true;
+	}
+
+	/*
+	 The current piece has landed: clear and score rows, then
+	 stop if the board is too tall or add a new piece.
+	*/
+	private void land() {
+		int cleared = board.clearRows();
+		if (cleared > 0) {
+			// score goes up by 5, 10, 20, 40 for row clearing
+			switch (cleared) {
+				case 1: score += 5;	 break;
+				case 2: score += 10;  break;
+				case 3: score += 20;  break;
+				case 4: score += 40;  break;
+				default: score += 50;  // could happen with non-standard pieces
+			}
+			rowsCleared(cleared);
+		}
+
+		// if the board is too tall, we've lost
+		if (board.getMaxHeight() > board.getHeight() - TOP_SPACE) {
+			stopGame();
+		}
+		// Otherwise add a new piece and keep playing
+		else {
+			addNewPiece();
+		}
+	}
+
+	/*
+	 Hooks for a display, all empty here.
+	*/
+
+	/**
+	 The current piece was installed or put back. oldPiece is where it was
+	 drawn before, or null if there is nothing else to redraw.
+	*/
+	protected void pieceMoved(Piece oldPiece, int oldX, int oldY) { }
+
+	/**
+	 A new piece is in play at the top of the board.
+	*/
+	protected void pieceAdded() { }
+
+	/**
+	 The piece just filled a row, which will be cleared when it lands.
+	*/
+	protected void rowFilled() { }
+
+	/**
+	 A landed piece cleared the given number of rows; the score is updated.
+	*/
+	protected void rowsCleared(int cleared) { }
+
+	/**
+	 The count or the score changed.
+	*/
+	protected void countersChanged() { }
+
+	/**
+	 The game has just ended.
+	*/
+	protected void gameStopped() { }
+}
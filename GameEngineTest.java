@@ -0,0 +1,187 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.function.IntConsumer;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.*;
+
+// The engine must play exactly like JTetris did before the rules moved
+// into it, and play() exactly like steering the piece with ticks.
+
+public class GameEngineTest {
+	@BeforeClass
+	public static void headless() {
+		System.setProperty("java.awt.headless", "true");
+	}
+
+	private void assertSameGame(GameEngine expected, GameEngine actual) {
+		assertEquals(expected.isGameOn(), actual.isGameOn());
+		assertEquals(expected.getCount(), actual.getCount());
+		assertEquals(expected.getScore(), actual.getScore());
+		assertEquals(expected.getBoard().toString(), actual.getBoard().toString());
+		assertEquals(expected.getCurrentPiece(), actual.getCurrentPiece());
+		assertEquals(expected.getCurrentX(), actual.getCurrentX());
+		assertEquals(expected.getCurrentY(), actual.getCurrentY());
+	}
+
+	// The trace next to this test, from the classes or else the working directory.
+	private static String[] readTrace() throws IOException {
+		try (InputStream in = GameEngineTest.class.getResourceAsStream("GameEngineTest.trace")) {
+			byte[] bytes = in != null ? in.readAllBytes() : Files.readAllBytes(Paths.get("GameEngineTest.trace"));
+			return new String(bytes, StandardCharsets.UTF_8).split("\n");
+		}
+	}
+
+	// The rows of the board as in the trace: hex bitmasks, row 0 first, up to the last non-empty one.
+	private static String rows(Board board) {
+		StringBuilder rows = new StringBuilder();
+		int top = 0;
+		for (int y = 0; y < board.getHeight(); y++) {
+			for (int x = 0; x < board.getWidth(); x++) if (board.getGrid(x, y)) top = y + 1;
+		}
+		for (int y = 0; y < Math.max(top, 1); y++) {
+			int bits = 0;
+			for (int x = 0; x < board.getWidth(); x++) if (board.getGrid(x, y)) bits |= 1 << x;
+			rows.append(y == 0 ? "" : ".").append(Integer.toHexString(bits));
+		}
+		return rows.toString();
+	}
+
+	private static String piece(Piece piece) {
+		return piece == null ? "-" : piece.getType() + "" + piece.getRotationIndex();
+	}
+
+	// Sends the verbs of the trace to the game and checks it against the trace after every tick.
+	private void replay(String[] trace, GameEngine engine, IntConsumer tick) {
+		int ticks = 0;
+		for (String line : trace) {
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			String[] tokens = line.trim().split(" ");
+			if (tokens[0].equals("end")) {
+				assertFalse(engine.isGameOn());
+				assertEquals(Integer.parseInt(tokens[1]), engine.getCount());
+				assertEquals(Integer.parseInt(tokens[2]), engine.getScore());
+				assertTrue(ticks > 1000);
+				return;
+			}
+			String at = "piece " + tokens[0];
+			assertEquals(at, Integer.parseInt(tokens[0]), engine.getCount());
+			assertEquals(at, Integer.parseInt(tokens[1]), engine.getScore());
+			assertEquals(at, tokens[2], rows(engine.getBoard()));
+			for (int i = 3; i < tokens.length; i++, ticks++) {
+				String[] step = tokens[i].split("/");
+				tick.accept(Integer.parseInt(step[0]));
+				at = "piece " + tokens[0] + ", tick " + ticks;
+				assertEquals(at, step[1], piece(engine.getCurrentPiece()));
+				assertEquals(at, Integer.parseInt(step[2]), engine.getCurrentX());
+				assertEquals(at, Integer.parseInt(step[3]), engine.getCurrentY());
+			}
+		}
+		fail("the trace has no end");
+	}
+
+	@Test
+	// the pieces, moves, landings and scores of the old JTetris, through a bare engine
+	public void testEngineTrace() throws IOException {
+		GameEngine engine = new GameEngine(JTetris.WIDTH, JTetris.HEIGHT, Piece.getPieces());
+		engine.setPieceLimit(100); // JTetris.TEST_LIMIT
+		engine.startGame(new Random(0));
+		replay(readTrace(), engine, engine::tick);
+	}
+
+	@Test
+	// ... and through the Swing game on top of it
+	public void testJTetrisTrace() throws IOException {
+		JTetris tetris = new JTetris(16);
+		tetris.createControlPanel();
+		tetris.testButton.setSelected(true); // Random(0), 100 pieces
+		tetris.startGame();
+		tetris.timer.stop(); // the test sends the ticks
+		replay(readTrace(), tetris.engine, tetris::tick);
+	}
+
+	// Steers the current piece to the brain's move with ticks, like a player.
+	private void steer(GameEngine engine, Brain.Move move) {
+		int count = engine.getCount();
+		for (int ticks = 0; engine.isGameOn() && engine.getCount() == count; ticks++) {
+			if (ticks > 200) throw new AssertionError("stuck at " + engine.getCurrentX() + "," + engine.getCurrentY() + " for " + move.x + "\n" + engine.getBoard());
+			Piece piece = engine.getCurrentPiece();
+			int x = engine.getCurrentX(), y = engine.getCurrentY();
+			if (!piece.equals(move.piece)) engine.tick(GameEngine.ROTATE);
+			else if (x < move.x) engine.tick(GameEngine.RIGHT);
+			else if (x > move.x) engine.tick(GameEngine.LEFT);
+			else {
+				engine.tick(GameEngine.DROP);
+				engine.tick(GameEngine.DOWN);
+				engine.tick(GameEngine.DOWN);
+				continue;
+			}
+			// no room to turn at the top yet -- let it fall a row
+			if (engine.getCount() == count && engine.getCurrentPiece() == piece
+					&& engine.getCurrentX() == x && engine.getCurrentY() == y) engine.tick(GameEngine.DOWN);
+		}
+	}
+
+	@Test
+	// play() ends in the same game as moving the piece there with ticks
+	public void testPlayMatchesTicks() {
+		DefaultBrain brain = new DefaultBrain();
+		GameEngine ticked = new GameEngine(10, 20, Piece.getPieces());
+		GameEngine played = new GameEngine(10, 20, Piece.getPieces());
+		ticked.startGame(new Random(3));
+		played.startGame(new Random(3));
+		Brain.Move move = new Brain.Move();
+		int pieces = 0;
+		while (played.isGameOn() && pieces++ < 300) {
+			played.getBoard().undo();
+			move = brain.bestMove(played.getBoard(), played.getCurrentPiece(), played.getHeight(), move);
+			ticked.getBoard().undo();
+			if (move == null) break;
+			played.getBoard().place(played.getCurrentPiece(), played.getCurrentX(), played.getCurrentY());
+			ticked.getBoard().place(ticked.getCurrentPiece(), ticked.getCurrentX(), ticked.getCurrentY());
+			// the brain's rotation of the current piece, at the spawn position both can reach
+			steer(ticked, move);
+			assertTrue(played.play(move.piece, move.x));
+			assertSameGame(ticked, played);
+		}
+		assertTrue(pieces > 50);
+	}
+
+	@Test
+	// a committed copy without the current piece, the game itself untouched
+	public void testSnapshot() {
+		GameEngine engine = new GameEngine(10, 20, Piece.getPieces());
+		engine.startGame(new Random(2));
+		engine.play(engine.getCurrentPiece(), 0);
+		engine.tick(GameEngine.DOWN);
+		String before = engine.getBoard().toString();
+		Board snapshot = engine.snapshot();
+		assertEquals(before, engine.getBoard().toString());
+		engine.getBoard().undo();
+		assertEquals(engine.getBoard().toString(), snapshot.toString());
+		assertEquals(engine.getBoard().getHash(), snapshot.getHash());
+		assertNotSame(engine.getBoard(), snapshot);
+	}
+
+	@Test
+	public void testPlayRejects() {
+		GameEngine engine = new GameEngine(10, 20, Piece.getPieces());
+		engine.startGame(new Random(1));
+		Piece current = engine.getCurrentPiece();
+		String before = engine.getBoard().toString();
+		assertFalse(engine.play(current, -1));
+		assertFalse(engine.play(current, 10));
+		assertFalse(engine.play(new Piece("0 0  1 0  2 0  3 0  4 0"), 0));
+		assertEquals(before, engine.getBoard().toString());
+		assertEquals(1, engine.getCount());
+		assertTrue(engine.play(current, 0));
+		assertEquals(2, engine.getCount());
+	}
+}
@@ -1,15 +1,49 @@
 import javax.swing.*;
 import java.awt.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class JBrainTetris extends JTetris{
 
 
     private DefaultBrain brain;
+    // picks the adversary's pieces, rating them in parallel with DefaultBrains of its own
+    private Adversary adversaryPicker;
     // container for best move - see in Brain interface
     private Brain.Move brainBestMove;
     // remembers the last meaning of the JTatris.count
     private int rememberedCount;
 
+    // the brain thinks on this thread, never on the Swing one
+    private final ExecutorService thinker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "JBrainTetris brain");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // the move being computed for the piece number pendingCount, or null
+    private Future<Brain.Move> pendingMove;
+    private int pendingCount;
+    // the adversary's piece for the board that move leads to, or null
+    private Future<Prediction> pendingWorst;
+    // the longest pickNextPiece() holds up the game for the adversary
+    private static final long ADVERSARY_WAIT_MILLIS = 100;
+
+    /** The adversary's choice for a board, and that board's hash. */
+    private static final class Prediction {
+        final long hash;
+        final Piece worst;
+
+        Prediction(long hash, Piece worst) {
+            this.hash = hash;
+            this.worst = worst;
+        }
+    }
+
     protected JCheckBox brainMode;
     protected JSlider adversary;
     protected JLabel ok;
@@ -21,7 +55,11 @@ public class JBrainTetris extends JTetris{
      */
     JBrainTetris(int pixels) {
         super(pixels);
-        brain = new DefaultBrain();
+        // -Dtetris.brain=lookahead plays with a 2-ply LookaheadBrain
+        brain = "lookahead".equals(System.getProperty("tetris.brain")) ? new LookaheadBrain() : new DefaultBrain();
+        adversaryPicker = new Adversary(DefaultBrain::new);
+        // -Dtetris.adversary.depth=2 makes the adversary look one more piece ahead
+        if ("2".equals(System.getProperty("tetris.adversary.depth"))) adversaryPicker.setDepth(2);
         // this information should be updated again after stop.
         brainBestMove = null;
         rememberedCount = 0;
@@ -77,19 +115,23 @@ public class JBrainTetris extends JTetris{
      *  It's ticks override. If brain mode is turned-on and verb == DOWN
      *  method searches its piece's bestMove's x coordinate and rotation type by iterating...
      *  Tick can make only one rotation and movement left or right.
+     *  The move is computed in the background; until it is there, the piece just keeps falling.
      */
     @Override
     public void tick(int verb){
         // If brain mode is selected, takes the opportunity to move the piece a bit first
         // It is an override of the DOWN part.
-        if(brainMode.isSelected() && verb == DOWN) {
+        if(brainMode.isSelected() && verb == DOWN && engine.gameOn) {
             // when the JTetris.count variable has changed to know that a new piece is in play
-            if(rememberedCount != count)
-                // if update failed, tick failed too.
-                if(!tryUpdateDestination(verb)) return;
+            if(rememberedCount != engine.count) {
+                // no move yet -- a plain DOWN this time
+                if(!tryUpdateDestination()) { super.tick(verb); return; }
+                // the brain found no play at all
+                if(brainBestMove == null) { stopGame(); return; }
+            }
             if(tryReachToDestination())
                 // If it is not already there, then we need to drop our piece
-                if(currentY != brainBestMove.y) verb = DROP;
+                if(engine.currentY != brainBestMove.y) verb = DROP;
         }
         super.tick(verb);
     }
@@ -101,23 +143,76 @@ public class JBrainTetris extends JTetris{
      */
     private boolean tryReachToDestination() {
         // keeps searching the correct piece shape for the best move.
-        if(!currentPiece.equals(brainBestMove.piece))
-            currentPiece = currentPiece.fastRotation();
+        if(!engine.currentPiece.equals(brainBestMove.piece))
+            engine.currentPiece = engine.currentPiece.fastRotation();
         // tries to go near to the best move's x coordinate.
-        if(brainBestMove.x > currentX) currentX ++;
-        else if(brainBestMove.x < currentX) currentX --;
+        if(brainBestMove.x > engine.currentX) engine.currentX ++;
+        else if(brainBestMove.x < engine.currentX) engine.currentX --;
         // when x coordinates are equal and animateFalling is selected, it reached best-move's destination.
-        else return(!animateFalling.isSelected() && currentPiece.equals(brainBestMove.piece));
+        else return(!animateFalling.isSelected() && engine.currentPiece.equals(brainBestMove.piece));
         return false;
     }
 
-    /** Gets new bestMove from brain. It is null, it means that game is over/stopped/or/not started. */
-    private boolean tryUpdateDestination(int verb) {
-        //The brain needs the board in a committed state before doing its computation
-        board.undo();
-        brainBestMove = brain.bestMove(board, currentPiece, HEIGHT, brainBestMove);
-        if (brainBestMove == null) { stopGame(); return false; }
-        rememberedCount = count;
+    /** Starts thinking about every new piece as soon as it spawns, if the brain plays. */
+    @Override
+    protected void pieceAdded() {
+        if(brainMode != null && brainMode.isSelected()) requestMove();
+    }
+
+    /**
+     * Hands the brain a snapshot of the committed board (without the current piece)
+     * on the thinker thread. The game goes on with the real board meanwhile.
+     * When the adversary is on, the thinker then picks its piece for the board
+     * the move leads to, so pickNextPiece() never searches on the Swing thread.
+     */
+    private void requestMove() {
+        cancelPending();
+        Board snapshot = engine.snapshot();
+        Piece piece = engine.currentPiece;
+        pendingCount = engine.count;
+        Future<Brain.Move> move = thinker.submit(() -> brain.bestMove(snapshot, piece, HEIGHT, null));
+        pendingMove = move;
+        if(adversary != null && adversary.getValue() > 0) {
+            Piece[] pieces = engine.pieces;
+            // the thinker runs one task at a time, so the move is done when this starts
+            pendingWorst = thinker.submit(() -> predictWorst(snapshot, move.get(), pieces));
+        }
+    }
+
+    /** Plays the move on the snapshot and asks the adversary about the board it leaves. */
+    private Prediction predictWorst(Board snapshot, Brain.Move move, Piece[] pieces) {
+        if(move == null) return null;
+        if(snapshot.place(move.piece, move.x, move.y) == Board.PLACE_ROW_FILLED) snapshot.clearRows();
+        snapshot.commit();
+        return new Prediction(snapshot.getHash(), adversaryPicker.worstPiece(snapshot, pieces, HEIGHT));
+    }
+
+    /** Forgets the move and the adversary's piece being computed. */
+    private void cancelPending() {
+        if(pendingMove != null) pendingMove.cancel(false);
+        if(pendingWorst != null) pendingWorst.cancel(false);
+        pendingMove = null;
+        pendingWorst = null;
+    }
+
+    /**
+     * Takes the bestMove for the current piece if the brain is done with it, without waiting.
+     * Returns false if it is not ready yet. The move is null when there is no play at all.
+     */
+    private boolean tryUpdateDestination() {
+        // brain mode was turned on during this piece
+        if(pendingMove == null || pendingCount != engine.count) requestMove();
+        if(!pendingMove.isDone()) return false;
+        try {
+            brainBestMove = pendingMove.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("The brain failed", e.getCause());
+        }
+        pendingMove = null;
+        rememberedCount = engine.count;
         return true;
     }
 
@@ -126,46 +221,88 @@ public class JBrainTetris extends JTetris{
     public void stopGame(){
         rememberedCount = 0;
         brainBestMove = null;
+        cancelPending();
         super.stopGame();
     }
 
     /** tries to find a new piece, according to adversary value
      * Method randoms integer from adversary value to 100 and
      * if it is more than this adversary meaning, picks next piece as JTetris makes it.
-     * else choose the worst case scenario from the best cases */
+     * else choose the worst case scenario from the best cases.
+     * The worst piece comes from the thinker -- when it is too late,
+     * the piece is a random one after all. */
     @Override
     public Piece pickNextPiece(){
         int currAdversity = adversary.getValue();
-        int randNum = random.nextInt(100);
+        int randNum = engine.random.nextInt(100);
+        Piece worst = randNum < currAdversity ? findWorstPiece() : null;
         // if this, then the piece should be chosen randomly as usual
-        if(randNum >= currAdversity) {
+        if(worst == null) {
             ok.setText("Ok");
             return super.pickNextPiece();
         }
         ok.setText("* Ok *");
-        return findWorstPiece();
+        return worst;
+    }
+
+    /** The adversary's cached ratings are for the old pieces. */
+    @Override
+    public void setPieces(PieceCatalog catalog) {
+        super.setPieces(catalog);
+        adversaryPicker.clearCache();
     }
 
-    /** tries to find the worst move from the best moves for each pieces */
+    /**
+     * Takes the adversary's piece for the landed board from the thinker, or null if it
+     * is not there in time. The piece the brain's move predicted is taken at once;
+     * otherwise (human play, or the piece landed elsewhere) the thinker rates a snapshot
+     * of the landed board, and the game waits for it at most ADVERSARY_WAIT_MILLIS.
+     */
     private Piece findWorstPiece() {
-        Piece worstOne = null;
-        double maxi = Double.MIN_VALUE;
-        Brain.Move currMove = null;
-        for(int i = 0; i < pieces.length; i ++){
-            currMove = brain.bestMove(board, pieces[i], HEIGHT, currMove);
-            if(currMove == null) return super.pickNextPiece();
-            worstOne = maxi < currMove.score ? pieces[i] : worstOne;
-            maxi = Math.max(maxi, currMove.score);
+        Future<Prediction> prediction = pendingWorst;
+        pendingWorst = null;
+        // the board is committed here -- the new piece is not in it yet
+        long hash = engine.board.getHash();
+        if(prediction != null) {
+            Prediction predicted = prediction.isDone() ? result(prediction, 0) : null;
+            if(predicted != null && predicted.hash == hash) return predicted.worst;
+            prediction.cancel(false);
+        }
+        Board snapshot = engine.snapshot();
+        Piece[] pieces = engine.pieces;
+        Future<Prediction> landed = thinker.submit(() -> new Prediction(hash, adversaryPicker.worstPiece(snapshot, pieces, HEIGHT)));
+        Prediction worst = result(landed, ADVERSARY_WAIT_MILLIS);
+        if(worst == null) {
+            landed.cancel(false);
+            return null;
+        }
+        return worst.worst;
+    }
+
+    /** Waits for the adversary at most the given time, null if it takes longer or was cancelled. */
+    private static Prediction result(Future<Prediction> prediction, long waitMillis) {
+        try {
+            return prediction.get(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | CancellationException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof CancellationException) return null; // the move was cancelled
+            throw new RuntimeException("The adversary failed", e.getCause());
         }
-        return worstOne;
     }
 
     public static void main(String[] args){
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         } catch (Exception ignored) { }
+        // no consistency checks while playing, unless -Dboard.check asks for them
+        if (System.getProperty("board.check") == null) Board.setDefaultCheckMode(Board.CheckMode.OFF);
         // here we need to run JBrainTetris, so runtime type of tetris is JBrainTetris.
         JTetris tetris = new JBrainTetris(16);
+        usePiecesProperty(tetris);
         JFrame frame = JBrainTetris.createFrame(tetris);
         frame.setVisible(true);
     }
@@ -7,6 +7,8 @@ import java.awt.event.*;
 import javax.swing.event.*;
 
 import java.awt.Toolkit;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 
 /**
@@ -43,7 +45,7 @@ public class JTetris extends JComponent {
 	// Extra blocks at the top for pieces to start.
 	// If a piece is sticking up into this area
 	// when it has landed -- game over!
-	public static final int TOP_SPACE = 4;
+	public static final int TOP_SPACE = GameEngine.TOP_SPACE;
 	
 	// When this is true, plays a fixed sequence of 100 pieces
 	protected boolean testMode = false;
@@ -53,36 +55,15 @@ public class JTetris extends JComponent {
 	// (default false, so debugging is easier)
 	protected boolean DRAW_OPTIMIZE = false;
 	
-	// Board data structures
-	protected Board board;
-	protected Piece[] pieces;
-	
-	
-	// The current piece in play or null
-	protected Piece currentPiece;
-	protected int currentX;
-	protected int currentY;
-	protected boolean moved;	// did the player move the piece
-	
-	
-	// The piece we're thinking about playing
-	// -- set by computeNewPosition
-	// (storing this in ivars is slightly questionable style)
-	protected Piece newPiece;
-	protected int newX;
-	protected int newY;
-	
-	// State of the game
-	protected boolean gameOn;	// true if we are playing
-	protected int count;		 // how many pieces played so far
+	// The game itself -- board, current piece, count and score.
+	// JTetris only draws it and feeds it ticks.
+	protected GameEngine engine;
 	protected long startTime;	// used to measure elapsed time
-	protected Random random;	 // the random generator for new pieces
 	
 	
 	// Controls
 	protected JLabel countLabel;
 	protected JLabel scoreLabel;
-	protected int score;
 	protected JLabel timeLabel;
 	protected JButton startButton;
 	protected JButton stopButton;
@@ -103,10 +84,26 @@ public class JTetris extends JComponent {
 		// a 1 pixel border around the whole thing.
 		setPreferredSize(new Dimension((WIDTH * pixels)+2,
 				(HEIGHT+TOP_SPACE)*pixels+2));
-		gameOn = false;
-		
-		pieces = Piece.getPieces();
-		board = new Board(WIDTH, HEIGHT + TOP_SPACE);
+		engine = new GameEngine(WIDTH, HEIGHT, Piece.getPieces()) {
+			// the display side of the game
+			protected Piece pickNextPiece() { return JTetris.this.pickNextPiece(); }
+			protected void pieceMoved(Piece oldPiece, int oldX, int oldY) {
+				// repaint the rect where it used to be and where it is now
+				if (oldPiece != null) repaintPiece(oldPiece, oldX, oldY);
+				if (currentPiece != null) repaintPiece(currentPiece, currentX, currentY);
+			}
+			// draw the whole board so the green row shows up
+			protected void rowFilled() { repaint(); }
+			protected void rowsCleared(int cleared) {
+				// clearing 4 gets you a beep!
+				if (cleared == 4) Toolkit.getDefaultToolkit().beep();
+				updateCounters();
+				repaint();	// repaint to show the result of the row clearing
+			}
+			protected void pieceAdded() { JTetris.this.pieceAdded(); }
+			protected void countersChanged() { updateCounters(); }
+			protected void gameStopped() { JTetris.this.stopGame(); }
+		};
 
 
 		/*
@@ -204,26 +201,19 @@ public class JTetris extends JComponent {
 	 so the game is happening.
 	*/
 	public void startGame() {
-		// cheap way to reset the board state
-		board = new Board(WIDTH, HEIGHT + TOP_SPACE);
+		// Set mode based on checkbox at start of game
+		testMode = testButton.isSelected();
+		engine.setPieceLimit(testMode ? TEST_LIMIT : 0);
+		
+		// the engine resets the board and adds the first piece
+		engine.startGame(testMode ? new Random(0) : new Random());	// same seq every time in test mode
 		
 		// draw the new board state once
 		repaint();
-		
-		count = 0;
-		score = 0;
 		updateCounters();
-		gameOn = true;
-		
-		// Set mode based on checkbox at start of game
-		testMode = testButton.isSelected();
-		
-		if (testMode) random = new Random(0);	// same seq every time
-		else random = new Random(); // diff seq each game
 		
 		enableButtons();
 		timeLabel.setText(" ");
-		addNewPiece();
 		timer.start();
 		startTime = System.currentTimeMillis();
 	}
@@ -234,15 +224,15 @@ public class JTetris extends JComponent {
 	 based on the gameOn state.
 	*/
 	private void enableButtons() {
-		startButton.setEnabled(!gameOn);
-		stopButton.setEnabled(gameOn);
+		startButton.setEnabled(!engine.gameOn);
+		stopButton.setEnabled(engine.gameOn);
 	}
 	
 	/**
 	 Stops the game.
 	*/
 	public void stopGame() {
-		gameOn = false;
+		engine.gameOn = false;
 		enableButtons();
 		timer.stop();
 		
@@ -256,43 +246,41 @@ public class JTetris extends JComponent {
 	 Given a piece, tries to install that piece
 	 into the board and set it to be the current piece.
 	 Does the necessary repaints.
-	 If the placement is not possible, then the placement
-	 is undone, and the board is not changed. The board
-	 should be in the committed state when this is called.
-	 Returns the same error code as Board.place().
+	 See GameEngine.setCurrent().
 	*/
 	public int setCurrent(Piece piece, int x, int y) {
-		int result = board.place(piece, x, y);
-		
-		if (result <= Board.PLACE_ROW_FILLED) { // SUCESS
-			// repaint the rect where it used to be
-			if (currentPiece != null) repaintPiece(currentPiece, currentX, currentY);
-			currentPiece = piece;
-			currentX = x;
-			currentY = y;
-			// repaint the rect where it is now
-			repaintPiece(currentPiece, currentX, currentY);
-		}
-		else {
-			board.undo();
-		}
-		
-		return(result);
+		return engine.setCurrent(piece, x, y);
+	}
+
+
+	/**
+	 Plays with the pieces of the given catalog instead of
+	 the 7 standard pieces, starting with the next new piece.
+	*/
+	public void setPieces(PieceCatalog catalog) {
+		engine.setPieces(catalog.getPieces());
 	}
 
+	/**
+	 Loads the catalog named by the tetris.pieces property, if it is set.
+	 The rotations are cached in a ".cache" file next to it.
+	*/
+	static void usePiecesProperty(JTetris tetris) {
+		String file = System.getProperty("tetris.pieces");
+		if (file == null) return;
+		try {
+			tetris.setPieces(PieceCatalog.loadCached(Paths.get(file), Paths.get(file + ".cache")));
+		} catch (IOException e) {
+			throw new RuntimeException("Could not load pieces from " + file, e);
+		}
+	}
 
 	/**
 	 Selects the next piece to use using the random generator
 	 set in startGame().
 	*/
 	public Piece pickNextPiece() {
-		int pieceNum;
-		
-		pieceNum = (int) (pieces.length * random.nextDouble());
-		
-		Piece piece	 = pieces[pieceNum];
-		
-		return(piece);
+		return engine.randomPiece();
 	}
 	
 			
@@ -301,107 +289,40 @@ public class JTetris extends JComponent {
 	 Ends the game if it's not possible.
 	*/
 	public void addNewPiece() {
-		count++;
-		score++;
-		
-		if (testMode && count == TEST_LIMIT+1) {
-			 stopGame();
-			 return;
-		}
-
-		// commit things the way they are
-		board.commit();
-		currentPiece = null;
-
-		Piece piece = pickNextPiece();
-		
-		// Center it up at the top
-		int px = (board.getWidth() - piece.getWidth())/2;
-		int py = board.getHeight() - piece.getHeight();
-		
-		// add the new piece to be in play
-		int result = setCurrent(piece, px, py);
-		
-		// This probably never happens, since
-		// the blocks at the top allow space
-		// for new pieces to at least be added.
-		if (result>Board.PLACE_ROW_FILLED) {
-			stopGame();
-		}
-
-		updateCounters();
+		engine.addNewPiece();
 	}
 	
+	/**
+	 Called when a new piece comes into play, before the counters are
+	 updated. Does nothing here -- JBrainTetris starts thinking.
+	*/
+	protected void pieceAdded() {
+	}
+
 	/**
 	 Updates the count/score labels with the latest values.
 	 */
 	private void updateCounters() {
-		countLabel.setText("Pieces " + count);
-		scoreLabel.setText("Score " + score);
+		countLabel.setText("Pieces " + engine.count);
+		scoreLabel.setText("Score " + engine.score);
 	}
 	
 	
 	/**
 	 Figures a new position for the current piece
 	 based on the given verb (LEFT, RIGHT, ...).
-	 The board should be in the committed state --
-	 i.e. the piece should not be in the board at the moment.
-	 This is necessary so dropHeight() may be called without
-	 the piece "hitting itself" on the way down.
-
-	 Sets the ivars newX, newY, and newPiece to hold
-	 what it thinks the new piece position should be.
-	 (Storing an intermediate result like that in
-	 ivars is a little tacky.)
+	 See GameEngine.computeNewPosition().
 	*/
 	public void computeNewPosition(int verb) {
-		// As a starting point, the new position is the same as the old
-		newPiece = currentPiece;
-		newX = currentX;
-		newY = currentY;
-		
-		// Make changes based on the verb
-		switch (verb) {
-			case LEFT: newX--; break;
-			
-			case RIGHT: newX++; break;
-			
-			case ROTATE:
-				newPiece = newPiece.fastRotation();
-				
-				// tricky: make the piece appear to rotate about its center
-				// can't just leave it at the same lower-left origin as the
-				// previous piece.
-				newX = newX + (currentPiece.getWidth() - newPiece.getWidth())/2;
-				newY = newY + (currentPiece.getHeight() - newPiece.getHeight())/2;
-				break;
-				
-			case DOWN: newY--; break;
-			
-			case DROP:
-			 newY = board.dropHeight(newPiece, newX);
-			 
-			 // trick: avoid the case where the drop would cause
-			 // the piece to appear to move up
-			 if (newY > currentY) {
-				 newY = currentY;
-			 }
-			 break;
-
-			default:
-				 throw new RuntimeException("Bad verb");
-		}
-	
+		engine.computeNewPosition(verb);
 	}
 
-
-
 		
-	public static final int ROTATE = 0;
-	public static final int LEFT = 1;
-	public static final int RIGHT = 2;
-	public static final int DROP = 3;
-	public static final int DOWN = 4;
+	public static final int ROTATE = GameEngine.ROTATE;
+	public static final int LEFT = GameEngine.LEFT;
+	public static final int RIGHT = GameEngine.RIGHT;
+	public static final int DROP = GameEngine.DROP;
+	public static final int DOWN = GameEngine.DOWN;
 	/**
 	 Called to change the position of the current piece.
 	 Each key press calls this once with the verbs
@@ -411,73 +332,12 @@ public class JTetris extends JComponent {
 
 	 Before this is called, the piece is at some location in the board.
 	 This advances the piece to be at its next location.
+	 The rules are in GameEngine.tick().
 	 
 	 Overriden by the brain when it plays.
 	*/
 	public void tick(int verb) {
-		if (!gameOn) return;
-		
-		if (currentPiece != null) {
-			board.undo();	// remove the piece from its old position
-		}
-		
-		// Sets the newXXX ivars
-		computeNewPosition(verb);
-		
-		// try out the new position (rolls back if it doesn't work)
-		int result = setCurrent(newPiece, newX, newY);
-		// if row clearing is going to happen, draw the
-		// whole board so the green row shows up
-		if (result ==  Board.PLACE_ROW_FILLED) {
-			repaint();
-		}
-		
-
-		boolean failed = (result >= Board.PLACE_OUT_BOUNDS);
-		// if it didn't work, put it back the way it was
-		if (failed) {
-			if (currentPiece != null) board.place(currentPiece, currentX, currentY);
-			repaintPiece(currentPiece, currentX, currentY);
-		}
-		
-		/*
-		 How to detect when a piece has landed:
-		 if this move hits something on its DOWN verb,
-		 and the previous verb was also DOWN (i.e. the player was not
-		 still moving it),	then the previous position must be the correct
-		 "landed" position, so we're done with the falling of this piece.
-		*/
-		if (failed && verb==DOWN && !moved) {	// it's landed
-		
-			int cleared = board.clearRows();
-			if (cleared > 0) {
-				// score goes up by 5, 10, 20, 40 for row clearing
-				// clearing 4 gets you a beep!
-				switch (cleared) {
-					case 1: score += 5;	 break;
-					case 2: score += 10;  break;
-					case 3: score += 20;  break;
-					case 4: score += 40; Toolkit.getDefaultToolkit().beep(); break;
-					default: score += 50;  // could happen with non-standard pieces
-				}
-				updateCounters();
-				repaint();	// repaint to show the result of the row clearing
-			}
-			
-			
-			// if the board is too tall, we've lost
-			if (board.getMaxHeight() > board.getHeight() - TOP_SPACE) {
-				stopGame();
-			}
-			// Otherwise add a new piece and keep playing
-			else {
-				addNewPiece();
-			}
-		}
-		
-		// Note if the player made a successful non-DOWN move --
-		// used to detect if the piece has landed on the next tick()
-		moved = (!failed && verb!=DOWN);
+		engine.tick(verb);
 	}
 
 
@@ -518,12 +378,12 @@ public class JTetris extends JComponent {
 	
 	// width in pixels of a block
 	private final float dX() {
-		return( ((float)(getWidth()-2)) / board.getWidth() );
+		return( ((float)(getWidth()-2)) / engine.board.getWidth() );
 	}
 
 	// height in pixels of a block
 	private final float dY() {
-		return( ((float)(getHeight()-2)) / board.getHeight() );
+		return( ((float)(getHeight()-2)) / engine.board.getHeight() );
 	}
 	
 	// the x pixel coord of the left side of a block
@@ -550,7 +410,7 @@ public class JTetris extends JComponent {
 		
 		
 		// Draw the line separating the top
-		int spacerY = yPixel(board.getHeight() - TOP_SPACE - 1);
+		int spacerY = yPixel(engine.board.getHeight() - TOP_SPACE - 1);
 		g.drawLine(0, spacerY, getWidth()-1, spacerY);
 
 
@@ -565,7 +425,7 @@ public class JTetris extends JComponent {
 		// Factor a few things out to help the optimizer
 		final int dx = Math.round(dX()-2);
 		final int dy = Math.round(dY()-2);
-		final int bWidth = board.getWidth();
+		final int bWidth = engine.board.getWidth();
 
 		int x, y;
 		// Loop through and draw all the blocks
@@ -582,10 +442,10 @@ public class JTetris extends JComponent {
 			}
 			
 			// draw from 0 up to the col height
-			final int yHeight = board.getColumnHeight(x);
+			final int yHeight = engine.board.getColumnHeight(x);
 			for (y=0; y<yHeight; y++) {
-				if (board.getGrid(x, y)) {
-					boolean filled = (board.getRowWidth(y)==bWidth);
+				if (engine.board.getGrid(x, y)) {
+					boolean filled = (engine.board.getRowWidth(y)==bWidth);
 					if (filled) g.setColor(Color.green);
 					
 					g.fillRect(left+1, yPixel(y)+1, dx, dy);	// +1 to leave a white border
@@ -718,8 +578,11 @@ public class JTetris extends JComponent {
 		try {
 			UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
 		} catch (Exception ignored) { }
+		// no consistency checks while playing, unless -Dboard.check asks for them
+		if (System.getProperty("board.check") == null) Board.setDefaultCheckMode(Board.CheckMode.OFF);
 		
 		JTetris tetris = new JTetris(16);
+		usePiecesProperty(tetris);
 		JFrame frame = JTetris.createFrame(tetris);
 		frame.setVisible(true);
 	}
@@ -0,0 +1,231 @@
+// LookaheadBrain.java
+
+/**
+ A Brain that looks past the current piece. Every play of the current
+ piece is rated the DefaultBrain way, the best beamWidth of them are
+ kept, and each of those is followed by the plays of the next piece(s),
+ again keeping the best beamWidth at every ply. A play is worth the best
+ rating found at the deepest ply below it.
+
+ The next pieces are given with setNextPieces() when the game shows them;
+ a ply whose piece is not known averages over every piece of the set.
+ Candidate boards are never copied: the search runs on the caller's board
+ with mark()/rollbackTo(), so each node costs one place() and the undo
+ of its own changes. When the per-move time budget runs out, the plays
+ not searched to the last ply are dropped -- a shallow rating is never
+ compared with a deep one -- and if none was, the beam's first play is
+ taken, which is the DefaultBrain play.
+
+ Typical client code looks like...
+ <pre>
+ LookaheadBrain brain = new LookaheadBrain(2, 5);	// 2 plies, beam of 5
+ brain.setTimeBudget(20);						// ms per move
+ brain.setNextPieces(preview);					// if the game has a preview
+ Brain.Move move = brain.bestMove(board, piece, limitHeight, null);
+ </pre>
+*/
+public class LookaheadBrain extends DefaultBrain {
+    private static final double LOST = 1e20;    // the rating of a board where the piece does not fit
+
+    private final int plies;
+    private final int beamWidth;
+    private long budgetNanos = 50_000_000L;
+    private Piece[] nextPieces = new Piece[0];    // pieces of plies 1, 2, ... when known
+    private Piece[] pieceSet = Piece.getPieces();    // averaged over for unknown pieces
+
+    // the search -- one set of candidate arrays per ply, reused between moves
+    private Piece[][] candPiece;
+    private int[][] candX, candY;
+    private double[][] candScore;
+    private int[][] drops;
+    private long deadline;
+
+    /**
+     Creates a brain that searches 2 plies with a beam of 5.
+    */
+    public LookaheadBrain() {
+        this(2, 5);
+    }
+
+    /**
+     Creates a brain that searches the given number of plies (1 is
+     the plain DefaultBrain) and keeps beamWidth plays at each one.
+    */
+    public LookaheadBrain(int plies, int beamWidth) {
+        if (plies < 1 || beamWidth < 1) throw new IllegalArgumentException("Your plies or beam width is invalid.");
+        this.plies = plies;
+        this.beamWidth = beamWidth;
+        candPiece = new Piece[plies][beamWidth];
+        candX = new int[plies][beamWidth];
+        candY = new int[plies][beamWidth];
+        candScore = new double[plies][beamWidth];
+        drops = new int[plies][];
+    }
+
+    /**
+     Sets how long one bestMove() may search, in milliseconds.
+     0 or less means no limit.
+    */
+    public void setTimeBudget(long millis) {
+        budgetNanos = millis * 1_000_000L;
+    }
+
+    /*
+     The budget in nanoseconds -- for tests that need it tiny.
+    */
+    void setTimeBudgetNanos(long nanos) {
+        budgetNanos = nanos;
+    }
+
+    /**
+     Sets the pieces that come after the current one, in order.
+     Plies past the known pieces average over the piece set.
+    */
+    public void setNextPieces(Piece... next) {
+        nextPieces = next == null ? new Piece[0] : next.clone();
+    }
+
+    /**
+     Sets the root pieces unknown plies average over --
+     Piece.getPieces() by default, or a PieceCatalog's pieces.
+    */
+    public void setPieceSet(Piece[] pieces) {
+        if (pieces == null || pieces.length == 0) throw new IllegalArgumentException("Your piece set is empty.");
+        pieceSet = pieces.clone();
+    }
+
+    /**
+     Same contract as Brain.bestMove(). move.score is the lookahead value
+     of the play, on the rateBoard() scale -- the plain rating of the play
+     when the time ran out before any play was searched to the last ply.
+    */
+    @Override
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        if (move==null) move = new Brain.Move();
+        board.commit();
+        deadline = budgetNanos > 0 ? System.nanoTime() + budgetNanos : Long.MAX_VALUE;
+
+        int count = collect(board, piece, 0, limitHeight);
+        if (count == 0) return(null);    // could not find a play at all!
+
+        // the beam's first play unless some play is searched through all the plies
+        int best = 0;
+        double bestScore = candScore[0][0];
+        for (int i = 0; i < count && plies > 1; i++) {
+            if (outOfTime()) break;    // the rest would only have their shallow rating
+            int mark = board.mark();
+            play(board, candPiece[0][i], candX[0][i], candY[0][i]);
+            double score = search(board, 1, limitHeight);
+            board.rollbackTo(mark);
+            if (Double.isNaN(score)) break;    // cut short -- not comparable with the others
+            if (score < bestScore || i == 0) {
+                bestScore = score;
+                best = i;
+            }
+        }
+        move.piece = candPiece[0][best];
+        move.x = candX[0][best];
+        move.y = candY[0][best];
+        move.score = bestScore;
+        return(move);
+    }
+
+    /*
+     The value of the committed board with plies [ply, plies) still to play,
+     or NaN if the time ran out before every branch reached the last ply.
+    */
+    private double search(Board board, int ply, int limitHeight) {
+        int known = ply - 1;    // index in nextPieces
+        if (known < nextPieces.length && nextPieces[known] != null)
+            return searchPiece(board, nextPieces[known], ply, limitHeight);
+        double sum = 0;
+        for (Piece piece : pieceSet) {
+            double score = searchPiece(board, piece, ply, limitHeight);
+            if (Double.isNaN(score)) return score;
+            sum += score;
+        }
+        return sum / pieceSet.length;
+    }
+
+    /*
+     The value of playing the piece at this ply: the best of its beam,
+     each followed down to the last ply. NaN when the time ran out.
+    */
+    private double searchPiece(Board board, Piece piece, int ply, int limitHeight) {
+        int count = collect(board, piece, ply, limitHeight);
+        if (count == 0) return LOST;
+        if (ply == plies - 1) return candScore[ply][0];    // sorted, the last ply's best
+        double best = LOST;
+        for (int i = 0; i < count; i++) {
+            if (outOfTime()) return Double.NaN;
+            int mark = board.mark();
+            play(board, candPiece[ply][i], candX[ply][i], candY[ply][i]);
+            double score = search(board, ply + 1, limitHeight);
+            board.rollbackTo(mark);
+            if (Double.isNaN(score)) return score;
+            if (i == 0 || score < best) best = score;
+        }
+        return best;
+    }
+
+    /*
+     Rates every play of the piece (all rotations and columns) with place/undo
+     and keeps the beamWidth best in the ply's candidate arrays, best first.
+     Returns how many were kept. Equal ratings keep the DefaultBrain order.
+    */
+    private int collect(Board board, Piece piece, int ply, int limitHeight) {
+        if (drops[ply] == null || drops[ply].length < board.getWidth()) drops[ply] = new int[board.getWidth()];
+        int[] drop = drops[ply];
+        int count = 0;
+        Piece current = piece;
+        while (true) {
+            int yBound = limitHeight - current.getHeight()+1;
+            int xBound = board.dropHeights(current, drop);
+            for (int x = 0; x < xBound; x++) {
+                int y = drop[x];
+                if (y >= yBound) continue;    // piece sticks up too far
+                int result = board.place(current, x, y);
+                if (result <= Board.PLACE_ROW_FILLED) {
+                    if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+                    count = insert(ply, count, current, x, y, cachedRate(board));
+                }
+                board.undo();
+            }
+            current = current.fastRotation();
+            if (current == piece) break;
+        }
+        return count;
+    }
+
+    /*
+     Insertion into the ply's sorted beam. Returns the new size.
+    */
+    private int insert(int ply, int count, Piece piece, int x, int y, double score) {
+        double[] scores = candScore[ply];
+        if (count == beamWidth && score >= scores[count - 1]) return count;
+        int i = count == beamWidth ? count - 1 : count;
+        for (; i > 0 && scores[i - 1] > score; i--) {
+            scores[i] = scores[i - 1];
+            candPiece[ply][i] = candPiece[ply][i - 1];
+            candX[ply][i] = candX[ply][i - 1];
+            candY[ply][i] = candY[ply][i - 1];
+        }
+        scores[i] = score;
+        candPiece[ply][i] = piece;
+        candX[ply][i] = x;
+        candY[ply][i] = y;
+        return Math.min(count + 1, beamWidth);
+    }
+
+    /*
+     Plays a candidate for good: place, clear and commit (inside a mark).
+    */
+    private void play(Board board, Piece piece, int x, int y) {
+        if (board.place(piece, x, y) == Board.PLACE_ROW_FILLED) board.clearRows();
+        board.commit();
+    }
+
+    private boolean outOfTime() {
+        return System.nanoTime() > deadline;
+    }
+}
@@ -0,0 +1,114 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.*;
+
+public class LookaheadBrainTest {
+	private static final Piece[] pieces = Piece.getPieces();
+
+	// Fills a board with random drops, committed.
+	private Board roughBoard(long seed) {
+		Board board = new Board(10, 24);
+		Random rand = new Random(seed);
+		for (int i = 0; i < 12; i++) {
+			Piece piece = pieces[rand.nextInt(pieces.length)];
+			int x = rand.nextInt(10 - piece.getWidth() + 1);
+			int y = board.dropHeight(piece, x);
+			if (board.place(piece, x, y) == Board.PLACE_ROW_FILLED) board.clearRows();
+			board.commit();
+		}
+		return board;
+	}
+
+	@Test
+	// with one ply the beam's best play is the DefaultBrain play
+	public void testOnePlyIsDefaultBrain() {
+		DefaultBrain greedy = new DefaultBrain();
+		LookaheadBrain onePly = new LookaheadBrain(1, 3);
+		for (int seed = 0; seed < 20; seed++) {
+			Board board = roughBoard(seed);
+			for (Piece piece : pieces) {
+				Brain.Move expected = greedy.bestMove(board, piece, 20, null);
+				Brain.Move actual = onePly.bestMove(board, piece, 20, null);
+				assertSame(expected.piece, actual.piece);
+				assertEquals(expected.x, actual.x);
+				assertEquals(expected.y, actual.y);
+				assertEquals(expected.score, actual.score);
+			}
+		}
+	}
+
+	@Test
+	// the search must leave the board exactly as it was
+	public void testBoardUnchanged() {
+		LookaheadBrain brain = new LookaheadBrain(3, 3);
+		brain.setTimeBudget(0);
+		brain.setNextPieces(pieces[Piece.STICK]);
+		for (int seed = 0; seed < 5; seed++) {
+			Board board = roughBoard(seed);
+			String before = board.toString();
+			long hash = board.getHash();
+			Brain.Move move = brain.bestMove(board, pieces[Piece.L2], 20, null);
+			assertNotNull(move);
+			assertEquals(before, board.toString());
+			assertEquals(hash, board.getHash());
+			assertTrue(board.canPlace(move.piece, move.x, move.y));
+			assertEquals(move.y, board.dropHeight(move.piece, move.x));
+		}
+	}
+
+	@Test
+	// a known next stick makes the brain keep a well open for it
+	public void testUsesNextPiece() {
+		Board board = new Board(4, 12);
+		// rows 0-2 full except column 3
+		for (int y = 0; y < 3; y++)
+			for (int x = 0; x < 3; x++) board.addBlock(x, y);
+		board.commit();
+		LookaheadBrain brain = new LookaheadBrain(2, 20);
+		brain.setTimeBudget(0);
+		brain.setNextPieces(pieces[Piece.STICK]);
+		Brain.Move move = brain.bestMove(board, pieces[Piece.SQUARE], 8, null);
+		assertEquals(0, move.x); // the square goes on the left, the stick then clears 3 rows
+	}
+
+	@Test
+	// out of time, a shallow rating never beats a deep one
+	public void testTinyBudget() {
+		DefaultBrain greedy = new DefaultBrain();
+		LookaheadBrain unlimited = new LookaheadBrain(2, 4);
+		unlimited.setTimeBudget(0);
+		LookaheadBrain expired = new LookaheadBrain(2, 4);
+		expired.setTimeBudgetNanos(1);
+		for (int seed = 0; seed < 5; seed++) {
+			Board board = roughBoard(seed);
+			for (Piece piece : pieces) {
+				// no time at all: the beam's first play, the DefaultBrain play
+				Brain.Move expected = greedy.bestMove(board, piece, 20, null);
+				Brain.Move actual = expired.bestMove(board, piece, 20, null);
+				assertSame(expected.piece, actual.piece);
+				assertEquals(expected.x, actual.x);
+				assertEquals(expected.score, actual.score);
+
+				// some time: either that play again, or a play searched to the end,
+				// which can not be better than the best of the whole search
+				double best = unlimited.bestMove(board, piece, 20, null).score;
+				for (long nanos = 1_000; nanos <= 1_000_000; nanos *= 10) {
+					LookaheadBrain brain = new LookaheadBrain(2, 4);
+					brain.setTimeBudgetNanos(nanos);
+					Brain.Move move = brain.bestMove(board, piece, 20, null);
+					boolean fallback = move.piece == expected.piece && move.x == expected.x && move.score == expected.score;
+					assertTrue(fallback || move.score >= best);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testNoPlay() {
+		Board board = new Board(3, 6);
+		assertNull(new LookaheadBrain().bestMove(board, pieces[Piece.STICK], 3, null)); // too tall standing, too wide lying
+	}
+}
@@ -0,0 +1,309 @@
+// PersistentBoard.java
+
+import java.util.Arrays;
+
+/**
+ An immutable Tetris board. place() and clearRows() never change the
+ receiver, they return a new board that shares every untouched part
+ with its parent, so snapshots can be handed to other threads
+ (search workers, the renderer) without locks or full copies.
+
+ <p>
+ Rows are long bitmasks (bit x is the block (x, y)), grouped in chunks of
+ CHUNK rows. A new board copies the array of chunk pointers and only the
+ chunks it writes to -- copy-on-write. Chunks are never modified once a
+ board is built, and all the state is reached through final fields,
+ so a board is safely published to any thread.
+ The board can be at most 64 blocks wide.
+
+ Typical client code looks like...
+ <pre>
+ PersistentBoard empty = PersistentBoard.empty(10, 24);
+ PersistentBoard next = empty.place(piece, x, empty.dropHeight(piece, x)).clearRows();
+ Board board = next.toBoard();		// back to a mutable board
+ </pre>
+*/
+public final class PersistentBoard {
+	public static final int MAX_WIDTH = 64;
+	private static final int CHUNK = 8; // rows per shared chunk
+	private static final long[] EMPTY_CHUNK = new long[CHUNK]; // shared by every empty area
+
+	private final int width;
+	private final int height;
+	private final long[][] chunks; // row y is chunks[y / CHUNK][y % CHUNK]
+	private final int[] heights; // array saves heights for every column
+	private final int maxHeight;
+	private final long hash; // same hash as Board.getHash()
+
+	private PersistentBoard(int width, int height, long[][] chunks, int[] heights, int maxHeight, long hash) {
+		this.width = width;
+		this.height = height;
+		this.chunks = chunks;
+		this.heights = heights;
+		this.maxHeight = maxHeight;
+		this.hash = hash;
+	}
+
+	/**
+	 Returns an empty board of the given width and height measured in blocks.
+	*/
+	public static PersistentBoard empty(int width, int height) {
+		if (width <= 0 || height <= 0) throw new IllegalArgumentException("Your width or height is not valid.");
+		if (width > MAX_WIDTH) throw new IllegalArgumentException("Your width is too big for a persistent board.");
+		long[][] chunks = new long[(height + CHUNK - 1) / CHUNK][];
+		Arrays.fill(chunks, EMPTY_CHUNK);
+		return new PersistentBoard(width, height, chunks, new int[width], 0, 0);
+	}
+
+	/**
+	 Returns an immutable copy of the given board's blocks.
+	 The board should be in the committed state.
+	*/
+	public static PersistentBoard of(Board board) {
+		PersistentBoard result = empty(board.getWidth(), board.getHeight());
+		long[][] chunks = result.chunks;
+		for (int y = 0; y < board.getMaxHeight(); y++) {
+			long row = 0;
+			for (int x = 0; x < board.getWidth(); x++)
+				if (board.getGrid(x, y)) row |= 1L << x;
+			if (row == 0) continue;
+			if (chunks[y / CHUNK] == EMPTY_CHUNK) chunks[y / CHUNK] = new long[CHUNK];
+			chunks[y / CHUNK][y % CHUNK] = row;
+		}
+		int[] heights = new int[board.getWidth()];
+		for (int x = 0; x < heights.length; x++) heights[x] = board.getColumnHeight(x);
+		return new PersistentBoard(result.width, result.height, chunks, heights, board.getMaxHeight(), board.getHash());
+	}
+
+	/**
+	 Returns a new, committed Board with the same blocks.
+	*/
+	public Board toBoard() {
+		return fill(new Board(width, height));
+	}
+
+	/**
+	 Returns a new, committed BitBoard with the same blocks.
+	*/
+	public BitBoard toBitBoard() {
+		return fill(new BitBoard(width, height));
+	}
+
+	/**
+	 * Copies the blocks into an empty board and commits it.
+	 */
+	private <T extends Board> T fill(T board) {
+		for (int y = 0; y < maxHeight; y++)
+			for (long bits = row(y); bits != 0; bits &= bits - 1)
+				board.addBlock(Long.numberOfTrailingZeros(bits), y);
+		board.commit();
+		return board;
+	}
+
+	/**
+	 Returns the width of the board in blocks.
+	*/
+	public int getWidth() { return width; }
+
+	/**
+	 Returns the height of the board in blocks.
+	*/
+	public int getHeight() { return height; }
+
+	/**
+	 Returns the max column height present in the board.
+	 For an empty board this is 0.
+	*/
+	public int getMaxHeight() { return maxHeight; }
+
+	/**
+	 Returns the 64-bit hash of the blocks -- equal to Board.getHash()
+	 of a board of the same size with the same blocks.
+	*/
+	public long getHash() { return hash; }
+
+	/**
+	 Returns the height of the given column --
+	 i.e. the y value of the highest block + 1.
+	*/
+	public int getColumnHeight(int x) {
+		if (x < 0 || x >= width)
+			throw new IllegalArgumentException("Your x coordinate is invalid for this board.");
+		return heights[x];
+	}
+
+	/**
+	 Returns the number of filled blocks in the given row.
+	*/
+	public int getRowWidth(int y) {
+		if (y < 0 || y >= height)
+			throw new IllegalArgumentException("Your y coordinate is invalid for this board.");
+		return Long.bitCount(row(y));
+	}
+
+	/**
+	 Returns true if the given block is filled in the board.
+	 Blocks outside of the valid width/height area always return true.
+	*/
+	public boolean getGrid(int x, int y) {
+		return x < 0 || x >= width || y < 0 || y >= height || (row(y) & (1L << x)) != 0;
+	}
+
+	/**
+	 * Returns the bitmask of row y.
+	 */
+	private long row(int y) {
+		return chunks[y / CHUNK][y % CHUNK];
+	}
+
+	/**
+	 Given a piece and an x, returns the y value where the piece
+	 would come to rest if it were dropped straight down at that x.
+	*/
+	public int dropHeight(Piece piece, int x) {
+		if (x < 0 || x >= width)
+			throw new IllegalArgumentException("Your x coordinate is invalid for this board.");
+		return Board.dropHeight(heights, piece, x);
+	}
+
+	/**
+	 Computes dropHeight() for every x where the piece fits, same as
+	 Board.dropHeights(). Returns how many x values were filled in.
+	*/
+	public int dropHeights(Piece piece, int[] out) {
+		return Board.dropHeights(heights, width, piece, out);
+	}
+
+	/**
+	 Returns what Board.place() would return for this placement --
+	 PLACE_OK, PLACE_ROW_FILLED, PLACE_OUT_BOUNDS or PLACE_BAD.
+	 Cells are checked in body order, the same as Board does.
+	*/
+	public int placementResult(Piece piece, int x, int y) {
+		if (piece == null) throw new IllegalArgumentException("Your piece is invlaid");
+		int result = Board.PLACE_OK;
+		if (x >= 0 && y >= 0 && x + piece.getWidth() <= width && y + piece.getHeight() <= height) {
+			long[] masks = piece.placementMasks(width)[x];
+			for (int r = 0; r < masks.length; r++) {
+				if (masks[r] == 0) continue;
+				long row = row(y + r);
+				if ((row & masks[r]) != 0) return Board.PLACE_BAD;
+				if (Long.bitCount(row | masks[r]) == width) result = Board.PLACE_ROW_FILLED;
+			}
+			return result;
+		}
+		for (int i = 0; i < piece.bodySize(); i++) {
+			int px = piece.bodyX(i) + x, py = piece.bodyY(i) + y;
+			if (px < 0 || px >= width || py < 0 || py >= height) return Board.PLACE_OUT_BOUNDS;
+			if ((row(py) & (1L << px)) != 0) return Board.PLACE_BAD;
+			int sameRow = 0; // blocks of the piece in this row
+			for (int j = 0; j < piece.bodySize(); j++) if (piece.bodyY(j) == piece.bodyY(i)) sameRow++;
+			if (Long.bitCount(row(py)) + sameRow == width) result = Board.PLACE_ROW_FILLED;
+		}
+		return result;
+	}
+
+	/**
+	 Returns true if the piece fits at (x, y) -- inside the board and
+	 not on top of any block.
+	*/
+	public boolean canPlace(Piece piece, int x, int y) {
+		return placementResult(piece, x, y) <= Board.PLACE_ROW_FILLED;
+	}
+
+	/**
+	 Returns a new board with the piece added at (x, y).
+	 Full rows are kept, call clearRows() on the result to remove them.
+	 Throws IllegalArgumentException if the piece goes out of bounds or
+	 collides with a block -- use canPlace() to check first.
+	*/
+	public PersistentBoard place(Piece piece, int x, int y) {
+		if (!canPlace(piece, x, y))
+			throw new IllegalArgumentException("Your piece can not be placed here.");
+		long[][] newChunks = chunks.clone();
+		int[] newHeights = heights.clone();
+		int newMaxHeight = maxHeight;
+		long newHash = hash;
+		long[] masks = piece.placementMasks(width)[x]; // canPlace() keeps the piece inside
+		for (int r = 0; r < masks.length; r++) {
+			if (masks[r] == 0) continue;
+			int py = y + r;
+			int c = py / CHUNK;
+			if (newChunks[c] == chunks[c]) newChunks[c] = chunks[c].clone(); // copy on first write
+			newHash ^= Board.rowHash(Board.rowKey(newChunks[c][py % CHUNK]), py);
+			newChunks[c][py % CHUNK] |= masks[r];
+			newHash ^= Board.rowHash(Board.rowKey(newChunks[c][py % CHUNK]), py);
+			for (long bits = masks[r]; bits != 0; bits &= bits - 1) {
+				int px = Long.numberOfTrailingZeros(bits);
+				newHeights[px] = Math.max(newHeights[px], py + 1);
+			}
+			newMaxHeight = Math.max(newMaxHeight, py + 1);
+		}
+		return new PersistentBoard(width, height, newChunks, newHeights, newMaxHeight, newHash);
+	}
+
+	/**
+	 Returns a new board where the rows that are filled all the way
+	 across are deleted and things above moved down -- or the receiver
+	 itself when no row is full. Chunks below the first full row are shared.
+	*/
+	public PersistentBoard clearRows() {
+		long fullRow = width == MAX_WIDTH ? -1L : (1L << width) - 1;
+		int first = 0;
+		while (first < maxHeight && row(first) != fullRow) first++;
+		if (first == maxHeight) return this;
+
+		long[][] newChunks = chunks.clone();
+		int to = first;
+		for (int from = first; from < maxHeight; from++) {
+			long bits = row(from);
+			if (bits != fullRow) setRow(newChunks, to++, bits);
+		}
+		for (int y = to; y < maxHeight; y++) setRow(newChunks, y, 0);
+		for (int c = first / CHUNK; c <= (maxHeight - 1) / CHUNK; c++)
+			if (newChunks[c] != chunks[c] && Arrays.equals(newChunks[c], EMPTY_CHUNK)) newChunks[c] = EMPTY_CHUNK;
+
+		// rebuild heights by sweeping down from the new top
+		long newHash = 0;
+		for (int y = 0; y < to; y++) newHash ^= Board.rowHash(Board.rowKey(newChunks[y / CHUNK][y % CHUNK]), y);
+
+		int[] newHeights = new int[width];
+		int newMaxHeight = 0;
+		long seen = 0;
+		for (int y = to - 1; y >= 0 && seen != fullRow; y--) {
+			long bits = newChunks[y / CHUNK][y % CHUNK];
+			long fresh = bits & ~seen;
+			if (fresh != 0 && newMaxHeight == 0) newMaxHeight = y + 1;
+			for (; fresh != 0; fresh &= fresh - 1) newHeights[Long.numberOfTrailingZeros(fresh)] = y + 1;
+			seen |= bits;
+		}
+		return new PersistentBoard(width, height, newChunks, newHeights, newMaxHeight, newHash);
+	}
+
+	/**
+	 * Writes one row of a board under construction, copying the chunk
+	 * the first time it is written (newChunks starts as the parent's pointers).
+	 */
+	private void setRow(long[][] newChunks, int y, long bits) {
+		int c = y / CHUNK;
+		if (newChunks[c] == chunks[c]) {
+			if (newChunks[c][y % CHUNK] == bits) return; // nothing changes, keep sharing
+			newChunks[c] = chunks[c].clone();
+		}
+		newChunks[c][y % CHUNK] = bits;
+	}
+
+	/**
+	 Renders the board state as a big String, in the same format as Board.
+	*/
+	public String toString() {
+		StringBuilder buff = new StringBuilder();
+		for (int y = height - 1; y >= 0; y--) {
+			buff.append('|');
+			for (int x = 0; x < width; x++) buff.append(getGrid(x, y) ? '+' : ' ');
+			buff.append("|\n");
+		}
+		for (int x = 0; x < width + 2; x++) buff.append('-');
+		return buff.toString();
+	}
+}
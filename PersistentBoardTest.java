@@ -0,0 +1,68 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+// PersistentBoard is checked against the mutable Board playing the same moves,
+// and every older snapshot must stay exactly as it was.
+
+public class PersistentBoardTest {
+	private static final Piece[] pieces = Piece.getPieces();
+
+	@Test
+	public void testSnapshotsNeverChange() {
+		PersistentBoard empty = PersistentBoard.empty(4, 6);
+		String before = empty.toString();
+		PersistentBoard stick = empty.place(pieces[Piece.STICK], 0, 0);
+		PersistentBoard square = stick.place(pieces[Piece.SQUARE], 1, 0);
+		assertEquals(Board.PLACE_ROW_FILLED, square.placementResult(pieces[Piece.STICK], 3, 0));
+		assertEquals(before, empty.toString());
+		assertEquals(0, empty.getMaxHeight());
+		assertEquals(4, stick.getMaxHeight());
+		assertEquals(1, stick.getRowWidth(0));
+		assertSame(stick, stick.clearRows()); // nothing to clear, nothing copied
+		PersistentBoard full = square.place(pieces[Piece.STICK], 3, 0);
+		PersistentBoard cleared = full.clearRows();
+		assertEquals(4, full.getRowWidth(1));
+		assertEquals(2, cleared.getColumnHeight(0));
+		assertEquals(0, cleared.getColumnHeight(1));
+		assertEquals(2, cleared.getRowWidth(1));
+		assertEquals(Board.PLACE_BAD, stick.placementResult(pieces[Piece.SQUARE], 0, 2));
+		assertEquals(Board.PLACE_OUT_BOUNDS, stick.placementResult(pieces[Piece.SQUARE], 3, 0));
+	}
+
+	@Test
+	public void testRandomGameMatchesBoard() {
+		Board board = new Board(10, 24);
+		board.setCheckMode(Board.CheckMode.OFF);
+		PersistentBoard persistent = PersistentBoard.empty(10, 24);
+		Random rand = new Random(5);
+		for (int move = 0; move < 500; move++) {
+			Piece piece = pieces[rand.nextInt(pieces.length)];
+			int x = rand.nextInt(10 - piece.getWidth() + 1);
+			int y = board.dropHeight(piece, x);
+			assertEquals(y, persistent.dropHeight(piece, x));
+			if (y + piece.getHeight() > 24) {
+				board = new Board(10, 24);
+				board.setCheckMode(Board.CheckMode.OFF);
+				persistent = PersistentBoard.empty(10, 24);
+				continue;
+			}
+			assertEquals(board.place(piece, x, y), persistent.placementResult(piece, x, y));
+			board.clearRows();
+			board.commit();
+			persistent = persistent.place(piece, x, y).clearRows();
+			assertEquals(board.toString(), persistent.toString());
+			assertEquals(board.getMaxHeight(), persistent.getMaxHeight());
+			assertEquals(board.getHash(), persistent.getHash());
+			for (int c = 0; c < 10; c++) assertEquals(board.getColumnHeight(c), persistent.getColumnHeight(c));
+		}
+		assertEquals(board.toString(), PersistentBoard.of(board).toString());
+		assertEquals(board.toString(), persistent.toBoard().toString());
+		assertEquals(board.toString(), persistent.toBitBoard().toString());
+		assertTrue(persistent.toBoard().getMaxHeight() == board.getMaxHeight());
+	}
+}
@@ -3,6 +3,7 @@
 import javax.swing.plaf.basic.BasicInternalFrameTitlePane;
 import java.lang.reflect.Array;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  An immutable representation of a tetris piece in a particular rotation.
@@ -23,22 +24,49 @@ import java.util.*;
 public class Piece {
 	// Starter code specs out a few basic things, leaving
 	// the algorithms to be done.
-	private TPoint[] body;
+	private int[] body; // blocks packed with TPoint.pack()
+	private int[] bodyXs; // the body again as plain coordinates, for bodyX()/bodyY()
+	private int[] bodyYs;
+	private int[] shape; // the packed body sorted -- same for equal pieces
+	private int hash; // precomputed from shape
 	private int[] skirt;
+	private long[] rowMasks; // bit x of rowMasks[y] is set when (x, y) is in the body
+	private volatile AtomicReferenceArray<long[][]> placementMasks; // rowMasks shifted to every x, by the x count
 	private int width;
 	private int height;
 	private Piece next; // "next" rotation // it's connection between other pieces
-	// in this static array ->
-	static private Piece[] pieces;	// singleton static array of first rotations
+	private int id = NO_ID; // type * MAX_ROTATIONS + rotation, set by makeFastRotations()
+	private Object owner; // the piece set that gave the id -- ids only compare within one
 
 	/**
 	 Defines a new piece given a TPoint[] array of its body.
 	 Makes its own copy of the array and the TPoints inside it.
 	*/
 	public Piece(TPoint[] points) {
-		InitBody(points);
+		this(packPoints(points));
+	}
+
+	/**
+	 Defines a new piece given its blocks packed with TPoint.pack().
+	 Takes over the array, duplicates are removed in place.
+	*/
+	private Piece(int[] packed) {
+		InitBody(packed);
 		InitWidthAndHeight();
 		InitSkirt();
+		InitRowMasks();
+	}
+
+	/**
+	 Defines a piece from precomputed tables (see PieceTables),
+	 taking the width, height and skirt as they are.
+	*/
+	private Piece(int[] packed, int[] skirt, int width, int height) {
+		InitBody(packed);
+		this.skirt = skirt;
+		this.width = width;
+		this.height = height;
+		InitRowMasks();
 	}
 
 	/**
@@ -50,8 +78,19 @@ public class Piece {
 	private void InitSkirt() {
 		skirt = new int[width];
 		Arrays.fill(skirt, Integer.MAX_VALUE);
-		for(TPoint p : body)
-			skirt[p.x] = Math.min(skirt[p.x], p.y);
+		for(int i = 0; i < body.length; i ++)
+			skirt[bodyXs[i]] = Math.min(skirt[bodyXs[i]], bodyYs[i]);
+	}
+
+	/**
+	 Defines the row masks -- one long per row of the piece,
+	 bit x is set when the block (x, y) is in the body.
+	 Only meaningful for pieces at most 64 blocks wide.
+	 */
+	private void InitRowMasks() {
+		rowMasks = new long[height];
+		for(int i = 0; i < body.length; i ++)
+			rowMasks[bodyYs[i]] |= 1L << bodyXs[i];
 	}
 
 	/**
@@ -60,24 +99,46 @@ public class Piece {
 	 */
 	private void InitWidthAndHeight() {
 		int maxI = 0, maxJ = 0;
-		for(TPoint p : body){
-			maxI = Math.max(maxI, p.x);
-			maxJ = Math.max(maxJ, p.y);
+		for(int i = 0; i < body.length; i ++){
+			maxI = Math.max(maxI, bodyXs[i]);
+			maxJ = Math.max(maxJ, bodyYs[i]);
 		}
 		width = ++ maxI;
 		height = ++ maxJ;
 	}
 
 	/**
-	 Copies some points from points to the body.
-	 Saves only unique points in the array.
+	 Packs the non null points with TPoint.pack().
 	 */
-	private void InitBody(TPoint[] points) {
-		HashSet<TPoint> bodySet = new HashSet<TPoint>();
+	private static int[] packPoints(TPoint[] points) {
+		int[] packed = new int[points.length];
+		int size = 0;
 		for(TPoint p : points)
-			if(p != null) bodySet.add(new TPoint(p));
-		body = new TPoint[bodySet.size()];
-		bodySet.toArray(body);
+			if(p != null) packed[size ++] = TPoint.pack(p.x, p.y);
+		return Arrays.copyOf(packed, size);
+	}
+
+	/**
+	 Saves the packed points as the body.
+	 Saves only unique points in the array, in their first order.
+	 */
+	private void InitBody(int[] packed) {
+		int size = 0;
+		for(int i = 0; i < packed.length; i ++) {
+			int j = 0;
+			while(j < size && packed[j] != packed[i]) j ++; // bodies are small, a scan beats hashing
+			if(j == size) packed[size ++] = packed[i];
+		}
+		body = size == packed.length ? packed : Arrays.copyOf(packed, size);
+		bodyXs = new int[size];
+		bodyYs = new int[size];
+		for(int i = 0; i < size; i ++) {
+			bodyXs[i] = TPoint.packedX(body[i]);
+			bodyYs[i] = TPoint.packedY(body[i]);
+		}
+		shape = body.clone();
+		Arrays.sort(shape);
+		hash = Arrays.hashCode(shape);
 	}
 
 	/**
@@ -110,10 +171,19 @@ public class Piece {
 	public TPoint[] getBody() {
 		TPoint[] copyBody = new TPoint[body.length];
 		for(int i = 0; i < body.length; i ++)
-			copyBody[i] = new TPoint(body[i]);
+			copyBody[i] = new TPoint(bodyXs[i], bodyYs[i]);
 		return copyBody;
 	}
 
+	/**
+	 Returns the body with every block packed by TPoint.pack(),
+	 in the same order as getBody(). No copy is made,
+	 the caller should not modify this array.
+	*/
+	public int[] packedBody() {
+		return body;
+	}
+
 	/**
 	 Returns a pointer to the piece's skirt. For each x value
 	 across the piece, the skirt gives the lowest y value in the body.
@@ -124,26 +194,108 @@ public class Piece {
 		return Arrays.copyOf(skirt, skirt.length);
 	}
 
+	/*
+	 Allocation-free read-only views of the body and the skirt
+	 for hot loops (Board.place(), dropHeight(), the brains).
+	 Blocks come in the same order as getBody().
+	*/
+
+	/**
+	 Returns the number of blocks in the body.
+	*/
+	public int bodySize() {
+		return bodyXs.length;
+	}
+
+	/**
+	 Returns the x of the i-th block of the body.
+	*/
+	public int bodyX(int i) {
+		return bodyXs[i];
+	}
+
+	/**
+	 Returns the y of the i-th block of the body.
+	*/
+	public int bodyY(int i) {
+		return bodyYs[i];
+	}
+
+	/**
+	 Returns the skirt at x -- the lowest y of the body in that column.
+	 Valid for 0 <= x < getWidth().
+	*/
+	public int skirtAt(int x) {
+		return skirt[x];
+	}
+
+	/**
+	 Returns row y of the piece as a bitmask -- bit x is set when the
+	 block (x, y) is in the body. Valid for 0 <= y < getHeight().
+	*/
+	public long rowMask(int y) {
+		return rowMasks[y];
+	}
+
+	/**
+	 Returns the row masks moved to every x where the piece fits on a board
+	 of the given width: result[x][y] is rowMask(y) << x, for
+	 0 <= x <= boardWidth - getWidth(). The table is cached for every width
+	 asked, so boards of several widths can share the piece. The caller should
+	 not modify these arrays.
+	*/
+	public long[][] placementMasks(int boardWidth) {
+		if(boardWidth > 64) throw new IllegalArgumentException("Your board width is too big for row masks.");
+		int count = Math.max(0, boardWidth - width + 1); // the count decides the width, at most 64
+		AtomicReferenceArray<long[][]> byCount = placementMasks;
+		if(byCount == null) placementMasks = byCount = new AtomicReferenceArray<>(65); // a lost race only costs a table
+		long[][] masks = byCount.get(count);
+		if(masks != null) return masks;
+		masks = new long[count][height];
+		for(int x = 0; x < count; x ++)
+			for(int y = 0; y < height; y ++)
+				masks[x][y] = rowMasks[y] << x;
+		byCount.set(count, masks);
+		return masks;
+	}
+
+	/**
+	 Returns the piece moved so its lowest x and lowest y are 0 -- the
+	 receiver itself when it is there already. The rotations only come
+	 back to the root for pieces anchored like that.
+	*/
+	public Piece normalized() {
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+		for(int i = 0; i < body.length; i ++) {
+			minX = Math.min(minX, bodyXs[i]);
+			minY = Math.min(minY, bodyYs[i]);
+		}
+		if(body.length == 0 || (minX == 0 && minY == 0)) return this;
+		int[] packed = new int[body.length];
+		for(int i = 0; i < body.length; i ++)
+			packed[i] = TPoint.pack(bodyXs[i] - minX, bodyYs[i] - minY);
+		return new Piece(packed);
+	}
+
 	/**
 	 Returns a new piece that is 90 degrees counter-clockwise
 	 rotated from the receiver.
 	 */
 	public Piece computeNextRotation() {
-		TPoint[] nextRotation = new TPoint[body.length];
+		int[] nextRotation = new int[body.length];
 		for(int currInd = 0; currInd < body.length; currInd ++)
-			nextRotation[currInd] = rotatedPoint(body[currInd]);
+			nextRotation[currInd] = rotatedPoint(bodyXs[currInd], bodyYs[currInd]);
 		return new Piece(nextRotation);
 	}
 
 	/**
-	 Calculates x and y values for the rotated point.
+	 Calculates x and y values for the rotated point, packed.
 	 */
-	private TPoint rotatedPoint(TPoint tPoint) {
-		int x = tPoint.x, y = tPoint.y; // calculate new coordinates for this point
+	private int rotatedPoint(int x, int y) {
 		y *= -1; // symmetric to x axis (x, y) / (b) mirroring the body horizontally
 		int shiftUp = height - 1; // delta y
 		y += shiftUp;
-		return new TPoint(y, x); // (a) swapping the x and y for each point
+		return TPoint.pack(y, x); // (a) swapping the x and y for each point
 	}
 
 	/**
@@ -156,6 +308,34 @@ public class Piece {
 		return next;
 	}
 
+	/**
+	 Returns the id of this rotation: getType() * MAX_ROTATIONS + getRotationIndex().
+	 Ids are small and stable (0 <= id < ID_COUNT for the standard pieces),
+	 so they can index lookup tables. Only pieces from getPieces() or a
+	 PieceCatalog and their rotations have an id, for any other piece this
+	 returns NO_ID. Ids are numbered per piece set -- type is the index of the
+	 piece in its own set.
+	*/
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 Returns the index of the piece in getPieces() -- STICK, L1, ...
+	 or NO_ID for a piece not set up by makeFastRotations().
+	*/
+	public int getType() {
+		return id == NO_ID ? NO_ID : id / MAX_ROTATIONS;
+	}
+
+	/**
+	 Returns how many fastRotation() steps this piece is from its root,
+	 or NO_ID for a piece not set up by makeFastRotations().
+	*/
+	public int getRotationIndex() {
+		return id == NO_ID ? NO_ID : id % MAX_ROTATIONS;
+	}
+
 	/**
 	 Returns true if two pieces are the same --
 	 their bodies contain the same points.
@@ -164,6 +344,11 @@ public class Piece {
 	 in the same order in the bodies. Used internally to detect
 	 if two rotations are effectively the same.
 	*/
+	/*
+	 Implementation: the sorted packed bodies are compared. Equal ids of
+	 one piece set are only a shortcut to true -- they always mean equal
+	 bodies -- so equals() stays transitive across sets and plain pieces.
+	*/
 	public boolean equals(Object obj) {
 		// standard equals() technique 1
 		if (obj == this) return true;
@@ -171,10 +356,16 @@ public class Piece {
 		// (null will be false)
 		if (!(obj instanceof Piece)) return false;
 		Piece other = (Piece)obj;
-		if(other.getBody().length != body.length) return false;
-		ArrayList<TPoint> thisBody = new ArrayList<>(Arrays.asList(body));
-		ArrayList<TPoint> otherBody = new ArrayList<>(Arrays.asList(other.getBody()));
-		return thisBody.containsAll(otherBody);
+		if(owner != null && owner == other.owner && id == other.id) return true;
+		return hash == other.hash && Arrays.equals(shape, other.shape);
+	}
+
+	/**
+	 Returns a hash code that agrees with equals() -- it depends only
+	 on the set of points in the body.
+	*/
+	public int hashCode() {
+		return hash;
 	}
 
 	// String constants for the standard 7 tetris pieces
@@ -194,6 +385,11 @@ public class Piece {
 	public static final int S2	  = 4;
 	public static final int SQUARE	= 5;
 	public static final int PYRAMID = 6;
+
+	// Ids of the rotations, see getId()
+	public static final int NO_ID = -1;
+	public static final int MAX_ROTATIONS = 4;
+	public static final int ID_COUNT = 7 * MAX_ROTATIONS;
 	
 	/**
 	 Returns an array containing the first rotation of
@@ -203,23 +399,68 @@ public class Piece {
 	 from each piece with the {@link #fastRotation()} message.
 	 In this way, the client can iterate through all the rotations
 	 until eventually getting back to the first rotation.
+	 Returns a new copy of the array every time, the pieces are shared.
 	 (provided code)
 	*/
 	public static Piece[] getPieces() {
-		// lazy evaluation -- create static array if needed
-		if (Piece.pieces==null) {
-			// use makeFastRotations() to compute all the rotations for each piece
-			Piece.pieces = new Piece[] {
-				makeFastRotations(new Piece(STICK_STR)),
-				makeFastRotations(new Piece(L1_STR)),
-				makeFastRotations(new Piece(L2_STR)),
-				makeFastRotations(new Piece(S1_STR)),
-				makeFastRotations(new Piece(S2_STR)),
-				makeFastRotations(new Piece(SQUARE_STR)),
-				makeFastRotations(new Piece(PYRAMID_STR)),
-			};
+		return Registry.ROOTS.clone();
+	}
+
+	/**
+	 Returns the same pieces as getPieces() as an unmodifiable list,
+	 without copying.
+	*/
+	public static List<Piece> pieceList() {
+		return Registry.ROOT_LIST;
+	}
+
+	/**
+	 Returns every rotation of every piece in getPieces() -- each
+	 (piece, rotation) state once, ordered by getId(). Unmodifiable.
+	*/
+	public static List<Piece> allRotations() {
+		return Registry.ROTATION_LIST;
+	}
+
+	/**
+	 Returns the rotation with the given id, or null if no rotation
+	 has it (pieces with fewer than MAX_ROTATIONS leave gaps).
+	*/
+	public static Piece fromId(int id) {
+		if(id < 0 || id >= ID_COUNT)
+			throw new IllegalArgumentException("Your piece id is invalid.");
+		return Registry.BY_ID[id];
+	}
+
+	/*
+	 Holder class for the standard pieces: the JVM builds it the first time
+	 it is used, exactly once, and publishes it safely to every thread,
+	 so readers need no locks. Nothing in it changes afterwards.
+	 The rotations come ready made from the generated PieceTables, the
+	 same pieces makeFastRotations() would build from the strings.
+	*/
+	private static final class Registry {
+		static final Piece[] ROOTS = new Piece[PieceTables.ROOT.length];
+		static final Piece[] BY_ID = new Piece[ID_COUNT];
+		static final List<Piece> ROOT_LIST;
+		static final List<Piece> ROTATION_LIST;
+
+		static {
+			Piece[] rotations = new Piece[PieceTables.ID.length];
+			for(int r = 0; r < rotations.length; r ++) {
+				rotations[r] = new Piece(PieceTables.BODY[r].clone(), PieceTables.SKIRT[r].clone(),
+						PieceTables.WIDTH[r], PieceTables.HEIGHT[r]);
+				rotations[r].id = PieceTables.ID[r];
+				rotations[r].owner = Registry.class;
+				BY_ID[rotations[r].id] = rotations[r];
+			}
+			for(int r = 0; r < rotations.length; r ++)
+				rotations[r].next = rotations[PieceTables.NEXT[r]];
+			for(int type = 0; type < ROOTS.length; type ++)
+				ROOTS[type] = rotations[PieceTables.ROOT[type]];
+			ROOT_LIST = Collections.unmodifiableList(Arrays.asList(ROOTS.clone()));
+			ROTATION_LIST = Collections.unmodifiableList(Arrays.asList(rotations));
 		}
-		return Piece.pieces;
 	}
 
 	/**
@@ -227,26 +468,60 @@ public class Piece {
 	 the other rotations and links them all together
 	 in a circular list. The list loops back to the root as soon
 	 as possible. Returns the root piece. fastRotation() relies on the
-	 pointer structure setup here.
+	 pointer structure setup here. Every rotation gets its id
+	 from the type and its distance from the root, owner is the
+	 piece set the ids belong to.
 	*/
 	/*
 	 Implementation: uses computeNextRotation()
 	 and Piece.equals() to detect when the rotations have gotten us back
 	 to the first piece.
 	*/
-	private static Piece makeFastRotations(Piece root) {
+	static Piece makeFastRotations(Piece root, int type, Object owner) {
+		if(root.owner != null) throw new IllegalArgumentException("Your piece already has rotations.");
 		Piece curr = root, next = null; // need to have two iteration process together
+		int rotation = 0;
+		root.id = type * MAX_ROTATIONS;
+		root.owner = owner;
 		while (true){
 			next = curr.computeNextRotation();
 			// if start point equals this next point,
 			// next point of the curr point should become start point. The End.
 			if(root.equals(next)){ curr.next = root; break; }
+			// a shape at (0,0) comes back after 4 turns at most -- more would reuse the ids of the next type
+			if(rotation + 1 == MAX_ROTATIONS) {
+				root.id = NO_ID;
+				root.owner = null;
+				throw new IllegalArgumentException("Your piece has more than " + MAX_ROTATIONS + " rotations.");
+			}
+			next.id = type * MAX_ROTATIONS + (++ rotation);
+			next.owner = owner;
 			curr.next = next;
 			curr = next;
 		}
 		return root;
 	}
 
+	/**
+	 Links rotations that were computed before (e.g. read from a
+	 PieceCatalog cache) into the circular list, without
+	 computeNextRotation(). rotations[i] is the packed body of rotation i,
+	 the arrays are taken over. Returns the root piece.
+	*/
+	static Piece linkRotations(int[][] rotations, int type, Object owner) {
+		if(rotations.length == 0 || rotations.length > MAX_ROTATIONS)
+			throw new IllegalArgumentException("Your rotation count is invalid.");
+		Piece[] ring = new Piece[rotations.length];
+		for(int i = 0; i < ring.length; i ++) {
+			ring[i] = new Piece(rotations[i]);
+			ring[i].id = type * MAX_ROTATIONS + i;
+			ring[i].owner = owner;
+		}
+		for(int i = 0; i < ring.length; i ++)
+			ring[i].next = ring[(i + 1) % ring.length];
+		return ring[0];
+	}
+
 	/**
 	 Given a string of x,y pairs ("0 0	0 1 0 2 1 0"), parses
 	 the points into a TPoint[] array.
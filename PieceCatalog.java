@@ -0,0 +1,287 @@
+// PieceCatalog.java
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ An immutable set of piece shapes with all their rotations built --
+ the 7 standard pieces, pentominoes or any custom shapes.
+ Anything that takes the root pieces of getPieces() (JTetris,
+ the brains) can take getPieces() of a catalog instead.
+
+ <p>
+ Shapes are read from a text file, one per line:
+ <pre>
+ # comments and blank lines are skipped
+ STICK   = 0 0  0 1  0 2  0 3
+ PLUS    = 1 0  0 1  1 1  2 1  1 2
+ </pre>
+ The points use the same format as the Piece(String) constructor.
+ Building the rotations is done once, loadCached() writes them to a small
+ binary cache file and the next start maps that file and links the stored
+ rotations directly, without computeNextRotation() or equals() loops.
+ The cache is rebuilt when the text file changes.
+
+ Typical client code looks like...
+ <pre>
+ PieceCatalog catalog = PieceCatalog.loadCached(Paths.get("pento.txt"), Paths.get("pento.cache"));
+ Piece[] pieces = catalog.getPieces();	// the roots, like Piece.getPieces()
+ String name = catalog.getName(0);		// "STICK"
+ </pre>
+*/
+public final class PieceCatalog {
+	private static final int MAGIC = 0x50434154; // "PCAT"
+	private static final int VERSION = 2;
+	private static final int MAX_BLOCKS = 64 * 64; // no piece is bigger than the widest board
+
+	private final String[] names;
+	private final Piece[] roots;
+	private final List<Piece> rootList;
+	private final long source; // fingerprint of the text the catalog was built from
+
+	private PieceCatalog(String[] names, Piece[] roots, long source) {
+		this.names = names;
+		this.roots = roots;
+		this.rootList = Collections.unmodifiableList(Arrays.asList(roots.clone()));
+		this.source = source;
+	}
+
+	/**
+	 Returns a catalog of the 7 standard pieces, sharing the pieces
+	 of Piece.getPieces().
+	*/
+	public static PieceCatalog standard() {
+		String[] names = {"STICK", "L1", "L2", "S1", "S2", "SQUARE", "PYRAMID"};
+		return new PieceCatalog(names, Piece.getPieces(), 0);
+	}
+
+	/**
+	 Builds a catalog from shape definitions in the text format above.
+	 Throws IllegalArgumentException on a malformed line.
+	*/
+	public static PieceCatalog parse(String text) {
+		List<String> names = new ArrayList<>();
+		List<Piece> roots = new ArrayList<>();
+		Object ids = new Object(); // the rotation ids of this catalog
+		int lineNum = 0;
+		for (String line : text.split("\n")) {
+			lineNum++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			int eq = line.indexOf('=');
+			if (eq <= 0) throw new IllegalArgumentException("Your catalog line " + lineNum + " has no name.");
+			Piece root;
+			try {
+				root = new Piece(line.substring(eq + 1)).normalized(); // rotations need the shape at (0,0)
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException("Your catalog line " + lineNum + " has invalid points.", e);
+			}
+			if (root.bodySize() == 0) throw new IllegalArgumentException("Your catalog line " + lineNum + " has no points.");
+			names.add(line.substring(0, eq).trim());
+			try {
+				roots.add(Piece.makeFastRotations(root, roots.size(), ids));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Your catalog line " + lineNum + " has too many rotations.", e);
+			}
+		}
+		return new PieceCatalog(names.toArray(new String[0]), roots.toArray(new Piece[0]), fingerprint(text));
+	}
+
+	/**
+	 Builds a catalog from a text file.
+	*/
+	public static PieceCatalog load(Path file) throws IOException {
+		return parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 Builds a catalog from a text resource next to the classes.
+	*/
+	public static PieceCatalog loadResource(String name) throws IOException {
+		try (InputStream in = PieceCatalog.class.getResourceAsStream(name)) {
+			if (in == null) throw new FileNotFoundException("No piece catalog resource " + name);
+			return parse(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 Loads the catalog of the text file through the cache file: when the cache
+	 was written from the same text its rotations are used as they are,
+	 otherwise the catalog is built from the text and the cache rewritten.
+	*/
+	public static PieceCatalog loadCached(Path file, Path cache) throws IOException {
+		String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+		if (Files.exists(cache)) {
+			try {
+				PieceCatalog cached = readCache(cache);
+				if (cached.source == fingerprint(text)) return cached;
+			} catch (IOException | RuntimeException ignored) {
+				// an old or broken cache is just rebuilt
+			}
+		}
+		PieceCatalog catalog = parse(text);
+		catalog.writeCache(cache);
+		return catalog;
+	}
+
+	/**
+	 Writes every rotation of every piece to a binary cache file.
+	 Layout, all ints big endian: magic, version, the source fingerprint
+	 and the CRC-32 of the payload as longs, then the payload: the piece
+	 count, then per piece the name (length and UTF-8 bytes), the rotation
+	 count and per rotation the block count and the blocks packed by
+	 TPoint.pack().
+	*/
+	public void writeCache(Path cache) throws IOException {
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(payload)) {
+			out.writeInt(roots.length);
+			for (int type = 0; type < roots.length; type++) {
+				byte[] name = names[type].getBytes(StandardCharsets.UTF_8);
+				out.writeInt(name.length);
+				out.write(name);
+				out.writeInt(rotationCount(roots[type]));
+				Piece piece = roots[type];
+				do {
+					int[] body = piece.packedBody();
+					out.writeInt(body.length);
+					for (int packed : body) out.writeInt(packed);
+					piece = piece.fastRotation();
+				} while (piece != roots[type]);
+			}
+		}
+		CRC32 crc = new CRC32();
+		crc.update(payload.toByteArray());
+		Path tmp = cache.resolveSibling(cache.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(source);
+			out.writeLong(crc.getValue());
+			payload.writeTo(out);
+		}
+		Files.move(tmp, cache, StandardCopyOption.REPLACE_EXISTING); // readers never see half a file
+	}
+
+	/**
+	 Reads a catalog back from a file made by writeCache(). The file is
+	 memory mapped and the stored rotations are linked as they are.
+	 Throws IOException for a file that is not such a cache, truncated
+	 or corrupt.
+	*/
+	public static PieceCatalog readCache(Path cache) throws IOException {
+		try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return readCache(buffer);
+		}
+	}
+
+	/**
+	 * Decodes the writeCache() layout. Every count is checked against the
+	 * bytes left before anything is allocated for it.
+	 */
+	private static PieceCatalog readCache(ByteBuffer in) throws IOException {
+		if (in.remaining() < 24 || in.getInt() != MAGIC || in.getInt() != VERSION)
+			throw new IOException("Not a piece catalog cache.");
+		long source = in.getLong();
+		long checksum = in.getLong();
+		CRC32 crc = new CRC32();
+		crc.update(in.duplicate());
+		if (crc.getValue() != checksum) throw new IOException("The piece catalog cache is corrupt.");
+
+		int count = readCount(in, 0, Integer.MAX_VALUE, 8); // a name length and a rotation count each
+		String[] names = new String[count];
+		Piece[] roots = new Piece[count];
+		Object ids = new Object();
+		for (int type = 0; type < count; type++) {
+			byte[] name = new byte[readCount(in, 0, Integer.MAX_VALUE, 1)];
+			in.get(name);
+			names[type] = new String(name, StandardCharsets.UTF_8);
+			int[][] rotations = new int[readCount(in, 1, Piece.MAX_ROTATIONS, 8)][]; // a block count and a block each
+			for (int r = 0; r < rotations.length; r++) {
+				rotations[r] = new int[readCount(in, 1, MAX_BLOCKS, 4)];
+				for (int i = 0; i < rotations[r].length; i++) rotations[r][i] = in.getInt();
+			}
+			roots[type] = Piece.linkRotations(rotations, type, ids);
+		}
+		if (in.hasRemaining()) throw new IOException("The piece catalog cache is corrupt.");
+		return new PieceCatalog(names, roots, source);
+	}
+
+	/**
+	 * Reads a count of the cache, which must be in [min, max] and leave
+	 * at least bytesEach bytes for each of the items it counts.
+	 */
+	private static int readCount(ByteBuffer in, int min, int max, int bytesEach) throws IOException {
+		if (in.remaining() < 4) throw new IOException("The piece catalog cache is truncated.");
+		int count = in.getInt();
+		if (count < min || count > max || (long) count * bytesEach > in.remaining())
+			throw new IOException("The piece catalog cache is corrupt.");
+		return count;
+	}
+
+	/**
+	 Returns how many pieces are in the catalog.
+	*/
+	public int size() {
+		return roots.length;
+	}
+
+	/**
+	 Returns the root rotation of the piece with the given index.
+	*/
+	public Piece get(int type) {
+		return roots[type];
+	}
+
+	/**
+	 Returns the name of the piece with the given index.
+	*/
+	public String getName(int type) {
+		return names[type];
+	}
+
+	/**
+	 Returns a new array of the root rotations, in file order --
+	 the catalog's version of Piece.getPieces().
+	*/
+	public Piece[] getPieces() {
+		return roots.clone();
+	}
+
+	/**
+	 Returns the root rotations as an unmodifiable list.
+	*/
+	public List<Piece> pieceList() {
+		return rootList;
+	}
+
+	/**
+	 Returns the number of fastRotation() steps before the piece comes back.
+	*/
+	public static int rotationCount(Piece root) {
+		int count = 0;
+		Piece piece = root;
+		do {
+			count++;
+			piece = piece.fastRotation();
+		} while (piece != root && piece != null);
+		return count;
+	}
+
+	/**
+	 * CRC and length of the text, so an edited file never matches an old cache.
+	 */
+	private static long fingerprint(String text) {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		return (crc.getValue() << 32) | (bytes.length & 0xFFFFFFFFL);
+	}
+}
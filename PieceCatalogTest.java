@@ -0,0 +1,169 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class PieceCatalogTest {
+	private static final String TEXT =
+		"# standard pieces and two pentominoes\n" +
+		"STICK = " + Piece.STICK_STR + "\n" +
+		"L1 = " + Piece.L1_STR + "\n" +
+		"L2 = " + Piece.L2_STR + "\n" +
+		"S1 = " + Piece.S1_STR + "\n" +
+		"S2 = " + Piece.S2_STR + "\n" +
+		"SQUARE = " + Piece.SQUARE_STR + "\n" +
+		"PYRAMID = " + Piece.PYRAMID_STR + "\n" +
+		"\n" +
+		"PLUS = 1 0  0 1  1 1  2 1  1 2\n" +
+		"LONG = 0 0  0 1  0 2  0 3  0 4\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// Every rotation of the catalog must be the same as the slow way.
+	private void assertRingsMatch(PieceCatalog catalog) {
+		for (int type = 0; type < catalog.size(); type++) {
+			Piece root = catalog.get(type), piece = root, slow = root;
+			int rotation = 0;
+			do {
+				assertEquals(slow, piece);
+				assertEquals(type, piece.getType());
+				assertEquals(rotation++, piece.getRotationIndex());
+				slow = slow.computeNextRotation();
+				piece = piece.fastRotation();
+			} while (piece != root);
+			assertEquals(root, slow); // the ring closes where the rotations do
+		}
+	}
+
+	@Test
+	public void testParse() {
+		PieceCatalog catalog = PieceCatalog.parse(TEXT);
+		assertEquals(9, catalog.size());
+		assertEquals("PLUS", catalog.getName(7));
+		Piece[] standard = Piece.getPieces();
+		for (int type = 0; type < standard.length; type++) {
+			assertEquals(standard[type], catalog.get(type));
+			assertEquals(PieceCatalog.rotationCount(standard[type]), PieceCatalog.rotationCount(catalog.get(type)));
+		}
+		assertEquals(1, PieceCatalog.rotationCount(catalog.get(7)));
+		assertEquals(2, PieceCatalog.rotationCount(catalog.get(8)));
+		assertRingsMatch(catalog);
+	}
+
+	@Test
+	// an id only means something in its own set -- across sets the shapes decide
+	public void testIdsOfDifferentSets() {
+		PieceCatalog first = PieceCatalog.parse("A = " + Piece.SQUARE_STR + "\nB = " + Piece.STICK_STR + "\n");
+		PieceCatalog second = PieceCatalog.parse("A = " + Piece.STICK_STR + "\nB = " + Piece.SQUARE_STR + "\n");
+		assertEquals(first.get(0).getId(), second.get(0).getId());
+		assertFalse(first.get(0).equals(second.get(0))); // same id, other shapes
+		assertEquals(first.get(0), second.get(1)); // same shape, other ids
+		assertEquals(first.get(0).hashCode(), second.get(1).hashCode());
+	}
+
+	@Test
+	// shapes away from (0,0) are moved there, or their rotations would never come back
+	public void testShapesAreNormalized() {
+		PieceCatalog catalog = PieceCatalog.parse("X = 1 1  2 1\nY = 3 5  3 6  4 5\n");
+		assertEquals(new Piece("0 0  1 0"), catalog.get(0));
+		assertEquals(2, PieceCatalog.rotationCount(catalog.get(0)));
+		assertEquals(new Piece("0 0  0 1  1 0"), catalog.get(1));
+		assertEquals(4, PieceCatalog.rotationCount(catalog.get(1)));
+		assertRingsMatch(catalog);
+	}
+
+	@Test
+	// a ring that does not close stops at MAX_ROTATIONS instead of running out of memory
+	public void testRotationLimit() {
+		Piece loose = new Piece("1 1  2 1");
+		try {
+			Piece.makeFastRotations(loose, 0, new Object());
+			fail();
+		} catch (IllegalArgumentException expected) { }
+		assertEquals(Piece.NO_ID, loose.getId());
+	}
+
+	@Test
+	public void testCacheRoundTrip() throws Exception {
+		Path text = folder.newFile("pieces.txt").toPath();
+		Path cache = folder.getRoot().toPath().resolve("pieces.cache");
+		Files.write(text, TEXT.getBytes(StandardCharsets.UTF_8));
+
+		PieceCatalog built = PieceCatalog.loadCached(text, cache);
+		assertTrue(Files.exists(cache));
+		PieceCatalog mapped = PieceCatalog.readCache(cache);
+		assertEquals(built.size(), mapped.size());
+		for (int type = 0; type < built.size(); type++) {
+			assertEquals(built.getName(type), mapped.getName(type));
+			assertEquals(PieceCatalog.rotationCount(built.get(type)), PieceCatalog.rotationCount(mapped.get(type)));
+			assertArrayEquals(built.get(type).getSkirt(), mapped.get(type).getSkirt());
+		}
+		assertRingsMatch(mapped);
+
+		// an edited text file must not use the old cache
+		Files.write(text, "DOT = 0 0\n".getBytes(StandardCharsets.UTF_8));
+		PieceCatalog edited = PieceCatalog.loadCached(text, cache);
+		assertEquals(1, edited.size());
+		assertEquals(1, PieceCatalog.readCache(cache).size());
+	}
+
+	// Asserts that readCache() rejects the bytes with an IOException and loadCached() rebuilds them.
+	private void assertRebuilt(Path text, Path cache, byte[] bytes) throws Exception {
+		Files.write(cache, bytes);
+		try {
+			PieceCatalog.readCache(cache);
+			fail("read a broken cache");
+		} catch (IOException expected) { }
+		assertEquals(9, PieceCatalog.loadCached(text, cache).size());
+		assertEquals(9, PieceCatalog.readCache(cache).size());
+	}
+
+	@Test
+	// truncated, corrupt or forged caches are never trusted, just rebuilt
+	public void testBrokenCache() throws Exception {
+		Path text = folder.newFile("pieces.txt").toPath();
+		Path cache = folder.getRoot().toPath().resolve("pieces.cache");
+		Files.write(text, TEXT.getBytes(StandardCharsets.UTF_8));
+		PieceCatalog.loadCached(text, cache);
+		byte[] good = Files.readAllBytes(cache);
+
+		for (int length : new int[] {0, 10, 24, 30, good.length - 1})
+			assertRebuilt(text, cache, Arrays.copyOf(good, length));
+		byte[] flipped = good.clone();
+		flipped[40] ^= 1;
+		assertRebuilt(text, cache, flipped);
+		assertRebuilt(text, cache, Arrays.copyOf(good, good.length + 4));
+
+		// a huge count with a matching checksum must not be allocated
+		for (int count : new int[] {-1, Integer.MAX_VALUE}) {
+			ByteBuffer forged = ByteBuffer.wrap(good.clone());
+			forged.putInt(24, count);
+			CRC32 crc = new CRC32();
+			crc.update(forged.array(), 24, good.length - 24);
+			forged.putLong(16, crc.getValue());
+			assertRebuilt(text, cache, forged.array());
+		}
+	}
+
+	@Test
+	public void testStandard() {
+		PieceCatalog catalog = PieceCatalog.standard();
+		assertEquals(7, catalog.size());
+		assertSame(Piece.getPieces()[Piece.SQUARE], catalog.get(Piece.SQUARE));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadLine() {
+		PieceCatalog.parse("STICK = 0 0  0 x");
+	}
+}
@@ -0,0 +1,60 @@
+// PieceTables.java
+// GENERATED by PieceTablesGenerator -- do not edit.
+
+/*
+ Every rotation of the 7 standard pieces, precomputed. Index r runs
+ over the rotations in id order; bodies are packed by TPoint.pack().
+*/
+final class PieceTables {
+	private PieceTables() { }
+
+	static final int[] ID = {0, 1, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 16, 17, 20, 24, 25, 26, 27};
+	static final int[] ROOT = {0, 2, 6, 10, 12, 14, 15};
+	static final int[] NEXT = {1, 0, 3, 4, 5, 2, 7, 8, 9, 6, 11, 10, 13, 12, 14, 16, 17, 18, 15};
+	static final int[] WIDTH = {1, 4, 2, 3, 2, 3, 2, 3, 2, 3, 3, 2, 3, 2, 2, 3, 2, 3, 2};
+	static final int[] HEIGHT = {4, 1, 3, 2, 3, 2, 3, 2, 3, 2, 2, 3, 2, 3, 2, 2, 3, 2, 3};
+
+	static final int[][] BODY = {
+		{0, 1, 2, 3},
+		{0x30000, 0x20000, 0x10000, 0},
+		{0, 1, 2, 0x10000},
+		{0x20000, 0x10000, 0, 0x20001},
+		{0x10002, 0x10001, 0x10000, 2},
+		{1, 0x10001, 0x20001, 0},
+		{0, 0x10000, 0x10001, 0x10002},
+		{0x20000, 0x20001, 0x10001, 1},
+		{0x10002, 2, 1, 0},
+		{1, 0, 0x10000, 0x20000},
+		{0, 0x10000, 0x10001, 0x20001},
+		{0x10000, 0x10001, 1, 2},
+		{1, 0x10001, 0x10000, 0x20000},
+		{0, 1, 0x10001, 0x10002},
+		{0, 1, 0x10000, 0x10001},
+		{0, 0x10000, 0x10001, 0x20000},
+		{0x10000, 0x10001, 1, 0x10002},
+		{0x20001, 0x10001, 0x10000, 1},
+		{2, 1, 0x10001, 0},
+	};
+
+	static final int[][] SKIRT = {
+		{0},
+		{0, 0, 0, 0},
+		{0, 0},
+		{0, 0, 0},
+		{2, 0},
+		{0, 1, 1},
+		{0, 0},
+		{1, 1, 0},
+		{0, 2},
+		{0, 0, 0},
+		{0, 0, 1},
+		{1, 0},
+		{1, 0, 0},
+		{0, 1},
+		{0, 0},
+		{0, 0, 0},
+		{1, 0},
+		{1, 0, 1},
+		{0, 1},
+	};
+}
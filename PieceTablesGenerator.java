@@ -0,0 +1,108 @@
+// PieceTablesGenerator.java
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ Writes PieceTables.java -- every rotation of the 7 standard pieces as
+ constant arrays, so Piece.getPieces() only reads static finals at startup.
+ The rotations are computed the slow way here (parsing the piece strings,
+ computeNextRotation() and equals()), exactly as makeFastRotations() does.
+
+ Run it whenever the piece strings or the body order change, and commit
+ the output. PieceTablesTest fails while the tables are stale.
+ <pre>
+ java PieceTablesGenerator [PieceTables.java]
+ </pre>
+*/
+public class PieceTablesGenerator {
+	private static final String[] STRINGS = {
+		Piece.STICK_STR, Piece.L1_STR, Piece.L2_STR, Piece.S1_STR,
+		Piece.S2_STR, Piece.SQUARE_STR, Piece.PYRAMID_STR,
+	};
+
+	/**
+	 Returns the rotations of every standard piece, computed from the strings,
+	 in id order -- type by type, each from its root.
+	*/
+	static List<Piece> computeRotations(List<Integer> types) {
+		List<Piece> rotations = new ArrayList<>();
+		for (int type = 0; type < STRINGS.length; type++) {
+			Piece root = new Piece(STRINGS[type]), piece = root;
+			do {
+				rotations.add(piece);
+				types.add(type);
+				piece = piece.computeNextRotation();
+			} while (!piece.equals(root));
+		}
+		return rotations;
+	}
+
+	/**
+	 Returns the source text of PieceTables.java.
+	*/
+	static String generate() {
+		List<Integer> types = new ArrayList<>();
+		List<Piece> rotations = computeRotations(types);
+		int count = rotations.size();
+		int[] ids = new int[count], next = new int[count], roots = new int[STRINGS.length];
+		for (int r = 0; r < count; r++) {
+			int type = types.get(r);
+			boolean first = r == 0 || types.get(r - 1) != type;
+			if (first) roots[type] = r;
+			ids[r] = type * Piece.MAX_ROTATIONS + (r - roots[type]);
+			boolean last = r == count - 1 || types.get(r + 1) != type;
+			next[r] = last ? roots[type] : r + 1;
+		}
+
+		StringBuilder out = new StringBuilder();
+		out.append("// PieceTables.java\n");
+		out.append("// GENERATED by PieceTablesGenerator -- do not edit.\n\n");
+		out.append("/*\n");
+		out.append(" Every rotation of the 7 standard pieces, precomputed. Index r runs\n");
+		out.append(" over the rotations in id order; bodies are packed by TPoint.pack().\n");
+		out.append("*/\n");
+		out.append("final class PieceTables {\n");
+		out.append("\tprivate PieceTables() { }\n\n");
+		out.append("\tstatic final int[] ID = ").append(ints(ids)).append(";\n");
+		out.append("\tstatic final int[] ROOT = ").append(ints(roots)).append(";\n");
+		out.append("\tstatic final int[] NEXT = ").append(ints(next)).append(";\n");
+		int[] widths = new int[count], heights = new int[count];
+		for (int r = 0; r < count; r++) {
+			widths[r] = rotations.get(r).getWidth();
+			heights[r] = rotations.get(r).getHeight();
+		}
+		out.append("\tstatic final int[] WIDTH = ").append(ints(widths)).append(";\n");
+		out.append("\tstatic final int[] HEIGHT = ").append(ints(heights)).append(";\n\n");
+		out.append("\tstatic final int[][] BODY = {\n");
+		for (Piece piece : rotations) out.append("\t\t").append(ints(piece.packedBody())).append(",\n");
+		out.append("\t};\n\n");
+		out.append("\tstatic final int[][] SKIRT = {\n");
+		for (Piece piece : rotations) out.append("\t\t").append(ints(piece.getSkirt())).append(",\n");
+		out.append("\t};\n");
+		out.append("}\n");
+		return out.toString();
+	}
+
+	/**
+	 * Formats an int array as a Java array initializer, packed points in hex.
+	 */
+	private static String ints(int[] values) {
+		StringBuilder out = new StringBuilder("{");
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) out.append(", ");
+			out.append(values[i] > 0xFFFF ? "0x" + Integer.toHexString(values[i]) : Integer.toString(values[i]));
+		}
+		return out.append('}').toString();
+	}
+
+	public static void main(String[] args) throws IOException {
+		String file = args.length > 0 ? args[0] : "PieceTables.java";
+		Files.write(Paths.get(file), generate().getBytes(StandardCharsets.UTF_8));
+		System.out.println("Wrote " + file);
+	}
+}
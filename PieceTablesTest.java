@@ -0,0 +1,42 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+// The generated tables must be exactly what the runtime computes from the
+// piece strings. If this fails, rerun PieceTablesGenerator.
+
+public class PieceTablesTest {
+	@Test
+	public void testTablesMatchComputedRotations() {
+		List<Integer> types = new ArrayList<>();
+		List<Piece> computed = PieceTablesGenerator.computeRotations(types);
+		assertEquals(computed.size(), PieceTables.ID.length);
+		for (int r = 0; r < computed.size(); r++) {
+			Piece slow = computed.get(r);
+			assertArrayEquals(slow.packedBody(), PieceTables.BODY[r]);
+			assertArrayEquals(slow.getSkirt(), PieceTables.SKIRT[r]);
+			assertEquals(slow.getWidth(), PieceTables.WIDTH[r]);
+			assertEquals(slow.getHeight(), PieceTables.HEIGHT[r]);
+			assertEquals(slow.computeNextRotation(), computed.get(PieceTables.NEXT[r]));
+			assertEquals((int) types.get(r), PieceTables.ID[r] / Piece.MAX_ROTATIONS);
+		}
+	}
+
+	@Test
+	public void testRegistryMatchesComputedRotations() {
+		List<Piece> computed = PieceTablesGenerator.computeRotations(new ArrayList<>());
+		List<Piece> rotations = Piece.allRotations();
+		assertEquals(computed.size(), rotations.size());
+		for (int r = 0; r < computed.size(); r++) {
+			Piece slow = computed.get(r), fast = rotations.get(r);
+			assertEquals(slow, fast);
+			assertArrayEquals(slow.packedBody(), fast.packedBody());
+			assertArrayEquals(slow.getSkirt(), fast.getSkirt());
+			for (int y = 0; y < slow.getHeight(); y++) assertEquals(slow.rowMask(y), fast.rowMask(y));
+			assertEquals(slow.computeNextRotation(), fast.fastRotation());
+		}
+	}
+}
@@ -588,6 +588,140 @@ public class PieceTest {
 			assertTrue(lTwo[i].equals(root));
 	}
 
+	// bodyX()/bodyY()/skirtAt() must show the same data as getBody()/getSkirt()
+	@Test
+	public void testIndexAccessors(){
+		for(Piece root : arr) {
+			Piece piece = root;
+			do {
+				TPoint[] body = piece.getBody();
+				assertEquals(body.length, piece.bodySize());
+				for(int i = 0; i < body.length; i ++)
+					assertEquals(body[i], new TPoint(piece.bodyX(i), piece.bodyY(i)));
+				int[] skirt = piece.getSkirt();
+				for(int i = 0; i < skirt.length; i ++)
+					assertEquals(skirt[i], piece.skirtAt(i));
+				piece = piece.fastRotation();
+			} while(piece != root);
+		}
+	}
+
+	// every rotation of getPieces() has its own id, and equals()/hashCode()
+	// agree with pieces built the slow way
+	@Test
+	public void testIdsAndHashCode(){
+		boolean[] seen = new boolean[Piece.ID_COUNT];
+		for(int type = 0; type < arr.length; type ++) {
+			Piece piece = arr[type], slow = arr[type];
+			int rotation = 0;
+			do {
+				assertEquals(type, piece.getType());
+				assertEquals(rotation, piece.getRotationIndex());
+				assertFalse(seen[piece.getId()]);
+				seen[piece.getId()] = true;
+				assertEquals(Piece.NO_ID, slow.computeNextRotation().getId());
+				assertTrue(piece.equals(slow) && slow.equals(piece));
+				assertEquals(piece.hashCode(), slow.hashCode());
+				piece = piece.fastRotation();
+				slow = slow.computeNextRotation();
+				rotation ++;
+			} while(piece != arr[type]);
+		}
+		assertFalse(arr[Piece.S1].equals(arr[Piece.S2]));
+		assertFalse(new Piece(Piece.S1_STR).equals(new Piece(Piece.S2_STR)));
+		assertEquals(new Piece(Piece.L1_STR).hashCode(), new Piece("1 0  0 2  0 1  0 0").hashCode());
+	}
+
+	// ids are only a shortcut: the same body is equal in every set and without one
+	@Test
+	public void testEqualsIsTransitive(){
+		PieceCatalog twins = PieceCatalog.parse("A = " + Piece.SQUARE_STR + "\nB = " + Piece.SQUARE_STR + "\n");
+		Piece a = twins.get(0), b = twins.get(1), plain = new Piece(Piece.SQUARE_STR);
+		assertTrue(a.getId() != b.getId());
+		assertTrue(a.equals(plain) && plain.equals(b));
+		assertTrue(a.equals(b) && b.equals(a));
+		assertTrue(a.equals(arr[Piece.SQUARE]) && arr[Piece.SQUARE].equals(b));
+		assertEquals(a.hashCode(), b.hashCode());
+		assertFalse(a.equals(arr[Piece.STICK]));
+	}
+
+	// row masks hold exactly the body, and the placement masks are them moved to every x
+	@Test
+	public void testRowMasks(){
+		Piece pyr = arr[Piece.PYRAMID];
+		assertEquals(0b111L, pyr.rowMask(0));
+		assertEquals(0b010L, pyr.rowMask(1));
+		long[][] masks = pyr.placementMasks(10);
+		assertEquals(8, masks.length);
+		assertEquals(0b111L << 7, masks[7][0]);
+		assertEquals(0b010L << 7, masks[7][1]);
+		assertSame(masks, pyr.placementMasks(10)); // cached
+		long[][] wide = pyr.placementMasks(12);
+		assertEquals(10, wide.length);
+		assertSame(masks, pyr.placementMasks(10)); // every width stays cached
+		assertSame(wide, pyr.placementMasks(12));
+		assertEquals(62, pyr.placementMasks(64).length);
+		assertEquals(0, arr[Piece.STICK].fastRotation().placementMasks(3).length);
+		for(Piece root : arr) {
+			Piece piece = root;
+			do {
+				int blocks = 0;
+				for(int y = 0; y < piece.getHeight(); y ++)
+					blocks += Long.bitCount(piece.rowMask(y));
+				assertEquals(piece.bodySize(), blocks);
+				for(int i = 0; i < piece.bodySize(); i ++)
+					assertTrue((piece.rowMask(piece.bodyY(i)) & (1L << piece.bodyX(i))) != 0);
+				piece = piece.fastRotation();
+			} while(piece != root);
+		}
+	}
+
+	// packed points round trip, and packedBody() is the body in getBody() order
+	@Test
+	public void testPackedBody(){
+		int[][] pts = {{0, 0}, {3, 7}, {-2, 5}, {4, -1}, {-300, -300}};
+		for(int[] pt : pts) {
+			int packed = TPoint.pack(pt[0], pt[1]);
+			assertEquals(pt[0], TPoint.packedX(packed));
+			assertEquals(pt[1], TPoint.packedY(packed));
+			assertEquals(new Point(pt[0], pt[1]).hashCode(), new TPoint(pt[0], pt[1]).hashCode());
+		}
+		for(Piece root : arr) {
+			Piece piece = root;
+			do {
+				TPoint[] body = piece.getBody();
+				int[] packed = piece.packedBody();
+				assertEquals(body.length, packed.length);
+				for(int i = 0; i < body.length; i ++)
+					assertEquals(TPoint.pack(body[i].x, body[i].y), packed[i]);
+				piece = piece.fastRotation();
+			} while(piece != root);
+		}
+		assertEquals(4, new Piece("0 0  0 1  0 1  1 0  0 0  1 1").bodySize());
+	}
+
+	// getPieces() hands out copies, the registry lists share the same pieces
+	@Test
+	public void testRegistry(){
+		Piece[] copy = Piece.getPieces();
+		copy[Piece.STICK] = null;
+		assertNotNull(Piece.getPieces()[Piece.STICK]);
+		assertSame(arr[Piece.L1], Piece.pieceList().get(Piece.L1));
+		assertEquals(19, Piece.allRotations().size());
+		int lastId = -1;
+		for(Piece piece : Piece.allRotations()) {
+			assertTrue(piece.getId() > lastId);
+			assertSame(piece, Piece.fromId(piece.getId()));
+			lastId = piece.getId();
+		}
+		assertNull(Piece.fromId(Piece.SQUARE * Piece.MAX_ROTATIONS + 1));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testRegistryIsUnmodifiable(){
+		Piece.allRotations().set(0, null);
+	}
+
 	//
 	// exceptions
 	// Checks if Exception is thrown when constructor's argument(string)
@@ -1,5 +1,3 @@
-import java.awt.*;
-
 //TPoint.java
 /*
  This is just a trivial "struct" type class --
@@ -7,6 +5,9 @@ import java.awt.*;
  and supports equals() and toString().
  We'll allow public access to x/y, so this
  is not an object really.
+
+ Hot loops skip the objects and pack a point into one int
+ with pack() -- see Piece.packedBody().
  */
 public class TPoint {
 	public int x;
@@ -45,7 +46,26 @@ public class TPoint {
 	}
 
 	@Override
+	// Same value as java.awt.Point's hashCode(), without making a Point
 	public int hashCode() {
-		return new Point(x, y).hashCode();
+		long bits = Double.doubleToLongBits(x);
+		bits ^= Double.doubleToLongBits(y) * 31;
+		return (((int) bits) ^ ((int) (bits >> 32)));
+	}
+
+	// Packs x, y into one int as (x << 16) | y.
+	// Both must fit in 16 bits signed, far more than any piece or board needs.
+	public static int pack(int x, int y) {
+		return (x << 16) | (y & 0xFFFF);
+	}
+
+	// The x of a packed point
+	public static int packedX(int packed) {
+		return packed >> 16;
+	}
+
+	// The y of a packed point
+	public static int packedY(int packed) {
+		return (short) packed;
 	}
 }
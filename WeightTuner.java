@@ -0,0 +1,375 @@
+// WeightTuner.java
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ Tunes the WeightedBrain weights with the cross-entropy method: every
+ generation samples a population of weight vectors from a normal
+ distribution per weight, plays each of them on the same headless games,
+ and moves the distribution to the mean and spread of the best (elite)
+ ones. The fitness of a weight vector is the mean number of pieces it
+ survives, up to the piece limit.
+
+ <p>
+ All the games of a generation run on a fixed pool of threads. Every
+ thread keeps one GameEngine and one WeightedBrain for the whole tuning
+ and only swaps the weights in, so nothing per game is allocated but the
+ Random. Clearly bad candidates stop early: after the first half of the
+ games a candidate under ELIMINATE_FRACTION of the elite cutoff plays
+ no more, and the elite is picked among the candidates that played all
+ the games.
+
+ <p>
+ The run is deterministic: generation g samples from a random stream of
+ the seed and g only, and all candidates of a generation play the same
+ game seeds. With a checkpoint file the state is written after every
+ generation, and a tune() with the same seed continues from it.
+
+ Typical client code looks like...
+ <pre>
+ WeightTuner tuner = new WeightTuner(10, 20, Piece.getPieces());
+ tuner.setCheckpoint(Paths.get("weights.properties"));
+ WeightTuner.State state = tuner.tune(50, 1L);
+ Brain brain = new WeightedBrain(state.getMean());
+ </pre>
+*/
+public class WeightTuner {
+	public static final double ELIMINATE_FRACTION = 0.5;
+
+	private static final double MIN_SIGMA = 0.05; // noise kept so the search does not collapse
+
+	private final int width;
+	private final int height;
+	private final Piece[] pieces;
+	private int population = 32;
+	private int elite = 8;
+	private int games = 16;
+	private int pieceLimit = 500;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private Path checkpoint; // null -- no checkpoints
+	private Consumer<State> listener; // told after every generation, may be null
+
+	// the objects each pool thread plays with, for as long as the tuner lives
+	private final ThreadLocal<WeightedBrain> brains = ThreadLocal.withInitial(WeightedBrain::new);
+	private final ThreadLocal<GameEngine> engines;
+
+	/**
+	 Creates a tuner playing on a board of the given width and playing
+	 height (see GameEngine), with the given piece set.
+	*/
+	public WeightTuner(int width, int height, Piece[] pieces) {
+		if (pieces == null || pieces.length == 0) throw new IllegalArgumentException("Your piece set is empty.");
+		this.width = width;
+		this.height = height;
+		this.pieces = pieces.clone();
+		engines = ThreadLocal.withInitial(() -> new GameEngine(this.width, this.height, this.pieces));
+	}
+
+	/**
+	 Sets how many weight vectors a generation samples (32 by default)
+	 and how many of the best ones the next generation is drawn from (8).
+	*/
+	public void setPopulation(int population, int elite) {
+		if (elite < 1 || elite > population) throw new IllegalArgumentException("Your population or elite size is invalid.");
+		this.population = population;
+		this.elite = elite;
+	}
+
+	/**
+	 Sets how many games each weight vector plays (16 by default) and
+	 after how many pieces a game stops (500).
+	*/
+	public void setGames(int games, int pieceLimit) {
+		if (games < 1 || pieceLimit < 1) throw new IllegalArgumentException("Your game count or piece limit is invalid.");
+		this.games = games;
+		this.pieceLimit = pieceLimit;
+	}
+
+	/**
+	 Sets how many games run at once, the number of cores by default.
+	*/
+	public void setThreads(int threads) {
+		if (threads <= 0) throw new IllegalArgumentException("Your thread count is invalid.");
+		this.threads = threads;
+	}
+
+	/**
+	 Sets the file the state is saved to after every generation, and
+	 resumed from -- null for none.
+	*/
+	public void setCheckpoint(Path checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 Sets a listener told the state after every generation.
+	*/
+	public void setListener(Consumer<State> listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 Runs generations until the state has the given number of them,
+	 starting from the checkpoint when there is one for this seed, and
+	 from DefaultBrain's weights otherwise. Returns the final state.
+	*/
+	public State tune(int generations, long seed) throws IOException {
+		State state = checkpoint != null && Files.exists(checkpoint) ? State.load(checkpoint) : new State(seed);
+		if (state.seed != seed) throw new IllegalArgumentException("Your checkpoint is for the seed " + state.seed + ".");
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			while (state.generation < generations) {
+				runGeneration(pool, state);
+				if (checkpoint != null) state.save(checkpoint);
+				if (listener != null) listener.accept(state);
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		return state;
+	}
+
+	/*
+	 Samples, plays and rates one generation and moves the state on.
+	*/
+	private void runGeneration(ExecutorService pool, State state) {
+		int features = state.mean.length;
+		SplittableRandom stream = new SplittableRandom(state.seed + state.generation * 0x9E3779B97F4A7C15L);
+		Random gaussian = new Random(stream.nextLong());
+		double[][] candidates = new double[population][features];
+		candidates[0] = state.mean.clone(); // the mean itself always plays
+		for (int c = 1; c < population; c++) {
+			for (int f = 0; f < features; f++) candidates[c][f] = state.mean[f] + state.sigma[f] * gaussian.nextGaussian();
+		}
+		long[] seeds = new long[games];
+		for (int g = 0; g < games; g++) seeds[g] = stream.nextLong();
+
+		// the first half of the games for all, the rest for the candidates still in the race
+		int[][] played = new int[population][games];
+		boolean[] alive = new boolean[population];
+		Arrays.fill(alive, true);
+		int first = Math.max(1, games / 2);
+		play(pool, candidates, alive, seeds, 0, first, played);
+		double[] fitness = fitness(played, first);
+		double cutoff = fitness[order(fitness)[elite - 1]];
+		for (int c = 0; c < population; c++) alive[c] = fitness[c] >= cutoff * ELIMINATE_FRACTION;
+		play(pool, candidates, alive, seeds, first, games, played);
+		fitness = survivorFitness(played, alive, games);
+
+		// the elite make the next distribution, all from the survivors (the first half's elite survive)
+		Integer[] best = order(fitness);
+		for (int f = 0; f < features; f++) {
+			double sum = 0, sumSquares = 0;
+			for (int e = 0; e < elite; e++) {
+				double w = candidates[best[e]][f];
+				sum += w;
+				sumSquares += w * w;
+			}
+			double mean = sum / elite;
+			state.mean[f] = mean;
+			state.sigma[f] = Math.sqrt(Math.max(0, sumSquares / elite - mean * mean)) + MIN_SIGMA;
+		}
+		if (fitness[best[0]] > state.bestFitness) {
+			state.bestFitness = fitness[best[0]];
+			state.best = candidates[best[0]].clone();
+		}
+		state.generation++;
+	}
+
+	/*
+	 Plays games [from, to) of the seeds for every alive candidate, each
+	 game a task of the pool. Tasks of one candidate are queued together
+	 so a thread mostly keeps its weights and their cached ratings.
+	*/
+	private void play(ExecutorService pool, double[][] candidates, boolean[] alive, long[] seeds,
+			int from, int to, int[][] played) {
+		List<Future<?>> futures = new ArrayList<>();
+		for (int c = 0; c < candidates.length; c++) {
+			if (!alive[c]) continue;
+			for (int g = from; g < to; g++) {
+				double[] weights = candidates[c];
+				int[] results = played[c];
+				int game = g;
+				futures.add(pool.submit(() -> {
+					WeightedBrain brain = brains.get();
+					brain.setWeights(weights);
+					GameEngine engine = engines.get();
+					engine.setPieceLimit(pieceLimit);
+					results[game] = Arena.playOut(engine, brain, new Random(seeds[game]));
+				}));
+			}
+		}
+		try {
+			for (Future<?> future : futures) future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("The tuning was interrupted.", e);
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException("A game failed.", e.getCause());
+		}
+	}
+
+	private static double[] fitness(int[][] played, int games) {
+		double[] fitness = new double[played.length];
+		for (int c = 0; c < played.length; c++) fitness[c] = mean(played[c], games);
+		return fitness;
+	}
+
+	/*
+	 The mean over all the games of every candidate that played them, -infinity
+	 for the ones cut after the first half -- their means are of other games.
+	*/
+	static double[] survivorFitness(int[][] played, boolean[] alive, int games) {
+		double[] fitness = new double[played.length];
+		for (int c = 0; c < played.length; c++) fitness[c] = alive[c] ? mean(played[c], games) : Double.NEGATIVE_INFINITY;
+		return fitness;
+	}
+
+	private static double mean(int[] values, int count) {
+		long sum = 0;
+		for (int i = 0; i < count; i++) sum += values[i];
+		return (double) sum / count;
+	}
+
+	/*
+	 Candidate indexes, best fitness first; ties keep the index order.
+	*/
+	private static Integer[] order(double[] fitness) {
+		Integer[] order = new Integer[fitness.length];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		Arrays.sort(order, (a, b) -> Double.compare(fitness[b], fitness[a]));
+		return order;
+	}
+
+	/**
+	 The tuning state: the distribution the next generation samples from
+	 and the best weights seen so far. Saved as a properties file.
+	*/
+	public static class State {
+		private final long seed;
+		private int generation;
+		private double[] mean;
+		private double[] sigma;
+		private double[] best;
+		private double bestFitness = -1;
+
+		State(long seed) {
+			this.seed = seed;
+			mean = WeightedBrain.defaultWeights();
+			sigma = new double[mean.length];
+			for (int f = 0; f < mean.length; f++) sigma[f] = Math.abs(mean[f]) / 2 + 1;
+			best = mean.clone();
+		}
+
+		public long getSeed() { return seed; }
+
+		public int getGeneration() { return generation; }
+
+		/**
+		 Returns the mean of the distribution -- the tuned weights.
+		*/
+		public double[] getMean() { return mean.clone(); }
+
+		public double[] getSigma() { return sigma.clone(); }
+
+		/**
+		 Returns the single best weights any generation played, and
+		 their fitness -- on that generation's games.
+		*/
+		public double[] getBest() { return best.clone(); }
+
+		public double getBestFitness() { return bestFitness; }
+
+		/**
+		 Writes the state to the file, through a temporary file so a
+		 crash never leaves half a checkpoint.
+		*/
+		public void save(Path file) throws IOException {
+			Properties props = new Properties();
+			props.setProperty("seed", Long.toString(seed));
+			props.setProperty("generation", Integer.toString(generation));
+			props.setProperty("mean", join(mean));
+			props.setProperty("sigma", join(sigma));
+			props.setProperty("best", join(best));
+			props.setProperty("bestFitness", Double.toString(bestFitness));
+			Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+			try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+				props.store(out, "WeightTuner checkpoint, weights: " + String.join(" ", WeightedBrain.FEATURES));
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		/**
+		 Reads a state written by save().
+		*/
+		public static State load(Path file) throws IOException {
+			Properties props = new Properties();
+			try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				props.load(in);
+			}
+			try {
+				State state = new State(Long.parseLong(props.getProperty("seed")));
+				state.generation = Integer.parseInt(props.getProperty("generation"));
+				state.mean = split(props.getProperty("mean"));
+				state.sigma = split(props.getProperty("sigma"));
+				state.best = split(props.getProperty("best"));
+				state.bestFitness = Double.parseDouble(props.getProperty("bestFitness"));
+				return state;
+			} catch (RuntimeException e) {
+				throw new IOException("Your checkpoint " + file + " is invalid.", e);
+			}
+		}
+
+		private static String join(double[] values) {
+			StringBuilder out = new StringBuilder();
+			for (double value : values) {
+				if (out.length() > 0) out.append(',');
+				out.append(value); // Double.toString reads back exactly
+			}
+			return out.toString();
+		}
+
+		private static double[] split(String text) {
+			String[] parts = text.split(",");
+			if (parts.length != WeightedBrain.FEATURES.length) throw new IllegalArgumentException("wrong weight count");
+			double[] values = new double[parts.length];
+			for (int i = 0; i < parts.length; i++) values[i] = Double.parseDouble(parts[i].trim());
+			return values;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		// no consistency checks in simulations, unless -Dboard.check asks for them
+		if (System.getProperty("board.check") == null) Board.setDefaultCheckMode(Board.CheckMode.OFF);
+		int generations = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 0L;
+		WeightTuner tuner = new WeightTuner(JTetris.WIDTH, JTetris.HEIGHT, Piece.getPieces());
+		if (args.length > 2) tuner.setCheckpoint(Paths.get(args[2]));
+		tuner.setListener(state -> System.out.printf("generation %d: best %.1f pieces, mean %s%n",
+				state.getGeneration(), state.getBestFitness(), Arrays.toString(state.getMean())));
+		State state = tuner.tune(generations, seed);
+		System.out.println("weights " + String.join(" ", WeightedBrain.FEATURES) + ": " + Arrays.toString(state.getMean()));
+	}
+}
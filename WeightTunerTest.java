@@ -0,0 +1,90 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+// Tuning must be repeatable: the same seed gives the same weights, with any
+// number of threads and across a checkpoint.
+
+public class WeightTunerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private WeightTuner smallTuner(int threads) {
+		WeightTuner tuner = new WeightTuner(10, 20, Piece.getPieces());
+		tuner.setPopulation(6, 2);
+		tuner.setGames(2, 40);
+		tuner.setThreads(threads);
+		return tuner;
+	}
+
+	@Test
+	// the default weights are DefaultBrain's
+	public void testDefaultWeightsPlayLikeDefaultBrain() {
+		Arena arena = new Arena(10, 20, Piece.getPieces());
+		arena.setPieceLimit(80);
+		Arena.Result expected = arena.run(DefaultBrain::new, 4, 3L);
+		Arena.Result actual = arena.run(WeightedBrain::new, 4, 3L);
+		assertEquals(expected.pieces().mean(), actual.pieces().mean(), 0);
+		assertEquals(expected.score().mean(), actual.score().mean(), 0);
+	}
+
+	@Test
+	// candidates cut after the first half rank below every one that played all the games
+	public void testCutCandidatesAreNotRanked() {
+		int[][] played = { {90, 90, 0, 0}, {40, 40, 30, 30}, {10, 10, 0, 0} };
+		double[] fitness = WeightTuner.survivorFitness(played, new boolean[] {false, true, false}, 4);
+		assertEquals(35, fitness[1], 0);
+		assertEquals(Double.NEGATIVE_INFINITY, fitness[0], 0);
+		assertEquals(Double.NEGATIVE_INFINITY, fitness[2], 0);
+	}
+
+	@Test
+	public void testSetWeightsClearsCache() {
+		WeightedBrain brain = new WeightedBrain();
+		Board board = new Board(4, 6);
+		board.place(new Piece(Piece.SQUARE_STR), 0, 0);
+		board.commit();
+		double rating = brain.cachedRate(board);
+		assertEquals(8 * 2 + 40 * 1.0 + 0, rating, 1e-9);
+		brain.setWeights(1, 0, 0, 0, 0, 0);
+		assertEquals(2, brain.cachedRate(board), 1e-9);
+		try {
+			brain.setWeights(1, 2);
+			fail();
+		} catch (IllegalArgumentException expected) { }
+	}
+
+	@Test
+	public void testThreadsDoNotChangeTuning() throws IOException {
+		WeightTuner.State one = smallTuner(1).tune(2, 11L);
+		WeightTuner.State four = smallTuner(4).tune(2, 11L);
+		assertEquals(2, four.getGeneration());
+		assertArrayEquals(one.getMean(), four.getMean(), 0);
+		assertArrayEquals(one.getSigma(), four.getSigma(), 0);
+		assertArrayEquals(one.getBest(), four.getBest(), 0);
+		assertTrue(four.getBestFitness() > 0);
+	}
+
+	@Test
+	public void testCheckpointResumes() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("tune.properties");
+		WeightTuner tuner = smallTuner(2);
+		tuner.setCheckpoint(file);
+		assertEquals(1, tuner.tune(1, 5L).getGeneration());
+		WeightTuner.State resumed = tuner.tune(3, 5L); // generations 2 and 3 from the file
+		WeightTuner.State straight = smallTuner(2).tune(3, 5L);
+		assertArrayEquals(straight.getMean(), resumed.getMean(), 0);
+		assertArrayEquals(straight.getSigma(), resumed.getSigma(), 0);
+		assertEquals(straight.getBestFitness(), resumed.getBestFitness(), 0);
+		assertEquals(3, WeightTuner.State.load(file).getGeneration());
+		try {
+			tuner.tune(4, 6L);
+			fail();
+		} catch (IllegalArgumentException expected) { }
+	}
+}
@@ -0,0 +1,61 @@
+// WeightedBrain.java
+
+import java.util.Arrays;
+
+/**
+ A DefaultBrain whose rateBoard() is a weighted sum of the board
+ features, with the weights as parameters instead of made up numbers
+ -- the brain WeightTuner tunes.
+
+ The features, in weight order, are the max height, the average height,
+ the holes, the bumpiness, the well depth and the row transitions (see
+ Board). The default weights are DefaultBrain's 8, 40, 1.25 and 0 for
+ the rest, so a new WeightedBrain plays exactly like a DefaultBrain.
+*/
+public class WeightedBrain extends DefaultBrain {
+    public static final String[] FEATURES = {
+        "maxHeight", "avgHeight", "holes", "bumpiness", "wellDepth", "rowTransitions"
+    };
+
+    private static final double[] DEFAULT_WEIGHTS = { 8, 40, 1.25, 0, 0, 0 };
+
+    private double[] weights = DEFAULT_WEIGHTS.clone();
+
+    public WeightedBrain() {
+    }
+
+    public WeightedBrain(double... weights) {
+        setWeights(weights);
+    }
+
+    /**
+     Returns DefaultBrain's weights, one for each of FEATURES.
+    */
+    public static double[] defaultWeights() {
+        return DEFAULT_WEIGHTS.clone();
+    }
+
+    /**
+     Sets the weights, one for each of FEATURES. The cached ratings
+     of the old weights are dropped.
+    */
+    public void setWeights(double... weights) {
+        if (weights == null || weights.length != FEATURES.length) throw new IllegalArgumentException("Your weights are invalid.");
+        if (Arrays.equals(this.weights, weights)) return;
+        this.weights = weights.clone();
+        EvalCache cache = getEvalCache();
+        if (cache != null) cache.clear();
+    }
+
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
+    @Override
+    public double rateBoard(Board board) {
+        double[] w = weights;
+        double avgHeight = ((double)board.getSumHeight())/board.getWidth();
+        return w[0]*board.getMaxHeight() + w[1]*avgHeight + w[2]*board.getHoles()
+            + w[3]*board.getBumpiness() + w[4]*board.getWellDepth() + w[5]*board.getRowTransitions();
+    }
+}